@@ -0,0 +1,77 @@
+package com.distributed.search.index;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting the terms of one document: the byte-level {@link ByteTokenizer} feeding a {@link TokenCounts}, against the
+ * original decode + toLowerCase + split("\\s+") + HashMap path. Run with -prof gc (the default) to see the allocation
+ * rate per document next to the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private static final String[] WORDS = {"Distributed", "systems", "big", "CAR", "small", "search", "index",
+            "leader", "worker", "the", "a", "of", "Zookeeper", "gRPC", "score"};
+
+    @Param({"4096", "1048576"})
+    public int documentBytes;
+
+    private byte[] document;
+    private ByteBuffer buffer;
+    private final ByteTokenizer tokenizer = new ByteTokenizer();
+    private final TokenCounts termCounts = new TokenCounts();
+
+    @Setup
+    public void setUp() {
+        // Mixed-case words separated by spaces and newlines, like the documents folder
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(documentBytes + 16);
+        while (text.length() < documentBytes) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextInt(5) == 0) {
+                text.append(random.nextInt(1000)); // Some rarer terms
+            }
+            text.append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        document = text.toString().getBytes(StandardCharsets.UTF_8);
+        buffer = ByteBuffer.wrap(document);
+    }
+
+    @Benchmark
+    public Map<String, Integer> splitBaseline() {
+        String[] words = new String(document, StandardCharsets.UTF_8).toLowerCase().split("\\s+");
+        Map<String, Integer> wordCounts = new HashMap<>();
+        for (String word : words) {
+            wordCounts.merge(word, 1, Integer::sum);
+        }
+        return wordCounts;
+    }
+
+    @Benchmark
+    public int byteTokenizer() {
+        termCounts.clear();
+        return tokenizer.tokenize(buffer, termCounts) + termCounts.size();
+    }
+}
@@ -3,15 +3,19 @@ package com.distributed.search;
 import com.distributed.search.cluster.LeaderElection;
 import com.distributed.search.cluster.OnElectionCallback;
 import com.distributed.search.cluster.ServiceRegistry;
-import com.distributed.search.model.DocumentScore;
-import com.distributed.search.model.TFRequest;
-import com.distributed.search.model.TFResponse;
-import com.distributed.search.model.TFServiceGrpc;
+import com.distributed.search.cluster.WorkerCapacity;
+import com.distributed.search.cluster.WorkerChannelPool;
+import com.distributed.search.coordinator.ResultCache;
+import com.distributed.search.coordinator.SearchCoordinator;
+import com.distributed.search.coordinator.SearchCursor;
+import com.distributed.search.coordinator.SearchResult;
+import com.distributed.search.coordinator.Singleflight;
+import com.distributed.search.index.IndexSnapshot;
+import com.distributed.search.index.InvertedIndex;
 import com.distributed.search.service.TFServiceImpl;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import org.apache.zookeeper.WatchedEvent;
@@ -22,10 +26,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main node class that acts as the entry point for the application.
@@ -38,14 +45,31 @@ public class SearchNode implements OnElectionCallback, Watcher {
     private static final String ZOOKEEPER_ADDRESS = "localhost:2181";
     private static final int SESSION_TIMEOUT = 3000;
     private static final String DOCUMENTS_DIRECTORY = "./documents";
+    private static final String INDEX_DIRECTORY = "./index"; // Each node keeps its segments in ./index/node-<port>
     private static final int GRPC_PORT_OFFSET = 1000; // gRPC port = HTTP port + 1000
+    // How often a worker checks whether its measured throughput moved enough to republish it
+    private static final long CAPACITY_PUBLISH_INTERVAL_MS = Long.getLong("worker.capacity.publish.ms", 10000);
+    // Relative change in throughput that triggers a republish (avoids a registry update per query)
+    private static final double CAPACITY_PUBLISH_THRESHOLD = 0.2;
 
     private final int serverPort;
     private ZooKeeper zooKeeper;
     private ServiceRegistry serviceRegistry;
+    private final WorkerChannelPool channelPool = new WorkerChannelPool();
+    private SearchCoordinator searchCoordinator;
+    private final ResultCache resultCache = new ResultCache();
+    private final Singleflight<SearchResult> inFlightQueries = new Singleflight<>();
     private LeaderElection leaderElection;
     private HttpServer httpServer;
     private Server grpcServer;
+    private InvertedIndex index;
+    private TFServiceImpl tfService;
+    private double publishedThroughput;
+    private final ScheduledExecutorService capacityPublisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "capacity-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     // Latch used to block startup until Zookeeper connection is fully established
     private final CountDownLatch connectedSignal = new CountDownLatch(1);
@@ -62,25 +86,35 @@ public class SearchNode implements OnElectionCallback, Watcher {
         connectToZookeeper();
 
         // 2. Init components
-        this.serviceRegistry = new ServiceRegistry(zooKeeper);
+        this.serviceRegistry = new ServiceRegistry(zooKeeper, channelPool);
         this.leaderElection = new LeaderElection(zooKeeper, this);
+        this.searchCoordinator = new SearchCoordinator(channelPool, serviceRegistry);
 
-        // 3. Start gRPC
+        // 3. Map (or build) the on-disk index and keep it in sync with the documents directory in the background
+        this.index = new InvertedIndex(DOCUMENTS_DIRECTORY, INDEX_DIRECTORY + "/node-" + serverPort);
+        index.start();
+
+        // 4. Start gRPC
         int grpcPort = serverPort + GRPC_PORT_OFFSET;
+        this.tfService = new TFServiceImpl(index);
         this.grpcServer = ServerBuilder.forPort(grpcPort)
-                .addService(new TFServiceImpl())
+                .addService(tfService)
                 .build()
                 .start();
         System.out.println("gRPC Server started on port " + grpcPort);
+        // While this node is a worker, keep the throughput in its registry znode current
+        capacityPublisher.scheduleWithFixedDelay(this::publishCapacity,
+                CAPACITY_PUBLISH_INTERVAL_MS, CAPACITY_PUBLISH_INTERVAL_MS, TimeUnit.MILLISECONDS);
 
-        // 4. Start HTTP
+        // 5. Start HTTP
         this.httpServer = HttpServer.create(new InetSocketAddress(serverPort), 0);
         this.httpServer.createContext("/search", this::handleSearchRequest);
+        this.httpServer.createContext("/stats", this::handleStatsRequest);
         this.httpServer.setExecutor(Executors.newFixedThreadPool(10));
         this.httpServer.start();
         System.out.println("HTTP Server started on port " + serverPort);
 
-        // 5. Volunteer for Leadership
+        // 6. Volunteer for Leadership
         // Pass the HTTP address so Frontend can find us
         String currentAddress = "localhost:" + serverPort;
         leaderElection.volunteerForLeadership(currentAddress);
@@ -131,15 +165,39 @@ public class SearchNode implements OnElectionCallback, Watcher {
         try {
             // Register this node's address in Zookeeper so the Leader can find it.
             // We register the "Host:GRPCPort" string so the leader knows where to send gRPC requests.
-            String currentAddress = "localhost:" + (serverPort + GRPC_PORT_OFFSET);
+            // The address is followed by this worker's capacity, which the Leader uses to size its share.
             if (serviceRegistry != null) {
-                serviceRegistry.registerToCluster(currentAddress);
+                serviceRegistry.registerToCluster(currentCapacity().encode());
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    private synchronized WorkerCapacity currentCapacity() {
+        publishedThroughput = tfService.getThroughput();
+        String currentAddress = "localhost:" + (serverPort + GRPC_PORT_OFFSET);
+        return new WorkerCapacity(currentAddress, tfService.getThreads(), publishedThroughput);
+    }
+
+    /**
+     * Republishes this worker's capacity when its measured throughput has changed noticeably.
+     * Does nothing once the node is no longer registered as a worker.
+     */
+    private void publishCapacity() {
+        double throughput = tfService.getThroughput();
+        synchronized (this) {
+            if (Math.abs(throughput - publishedThroughput) <= CAPACITY_PUBLISH_THRESHOLD * publishedThroughput) {
+                return;
+            }
+        }
+        try {
+            serviceRegistry.updateRegistration(currentCapacity().encode());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Handles HTTP POST requests for search. This logic runs ONLY on the Leader node.
      */
@@ -159,110 +217,77 @@ public class SearchNode implements OnElectionCallback, Watcher {
                 return;
             }
 
-            // 2. Get active workers from ServiceRegistry
-            List<String> workers = serviceRegistry.getAllServiceAddresses();
-            if (workers.isEmpty()) {
-                sendResponse(exchange, 503, "No workers available in the cluster");
+            // Optional URL parameters:
+            // ?k=N (or ?limit=N): only the N best documents are ranked and returned
+            // ?size=N[&search_after=<cursor>]: one page of N documents, starting after the cursor of the previous page
+            Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+            int pageSize;
+            int limit;
+            SearchCursor searchAfter;
+            try {
+                pageSize = parseNonNegative(parameters.get("size"));
+                limit = pageSize > 0 ? 0 : parseNonNegative(parameters.getOrDefault("k", parameters.get("limit")));
+                searchAfter = parameters.containsKey("search_after") ? SearchCursor.decode(parameters.get("search_after")) : null;
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, "Invalid parameter: " + e.getMessage());
                 return;
             }
 
-            // 3. Get all document filenames
-            File dir = new File(DOCUMENTS_DIRECTORY);
-            String[] fileNames = dir.list((d, name) -> name.endsWith(".txt"));
-            if (fileNames == null || fileNames.length == 0) {
+            // 2. Get all document filenames from the local index snapshot (kept current by the background indexer)
+            IndexSnapshot snapshot = index.getSnapshot();
+            List<String> allFiles = snapshot.getSortedDocumentNames();
+            if (allFiles.isEmpty()) {
                 sendResponse(exchange, 404, "No documents found in " + DOCUMENTS_DIRECTORY);
                 return;
             }
-            List<String> allFiles = Arrays.asList(fileNames);
 
-            // 4. Distribute files among workers (Round Robin strategy)
-            Map<String, List<String>> tasks = new HashMap<>();
-            for (int i = 0; i < allFiles.size(); i++) {
-                String worker = workers.get(i % workers.size());
-                tasks.computeIfAbsent(worker, k -> new ArrayList<>()).add(allFiles.get(i));
+            if (searchAfter != null && searchAfter.getCorpusFingerprint() != snapshot.getFingerprint()) {
+                sendResponse(exchange, 410, "Cursor expired: the documents have changed, start again from the first page");
+                return;
             }
 
-            // 5. Send tasks to workers via gRPC and aggregate results
-            // Note: We use a List to collect ALL individual term scores from workers.
-            List<DocumentScore> allTermScores = new ArrayList<>();
-
-            for (Map.Entry<String, List<String>> entry : tasks.entrySet()) {
-                String workerAddress = entry.getKey();
-                List<String> filesForWorker = entry.getValue();
-
-                // Extract host and port
-                String[] parts = workerAddress.split(":");
-                String host = parts[0];
-                int port = Integer.parseInt(parts[1]);
-
-                // Establish gRPC connection
-                ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port)
-                        .usePlaintext()
-                        .build();
-
-                TFServiceGrpc.TFServiceBlockingStub stub = TFServiceGrpc.newBlockingStub(channel);
-
-                TFRequest request = TFRequest.newBuilder()
-                        .setSearchQuery(query)
-                        .addAllFilePaths(filesForWorker)
-                        .build();
-
-                try {
-                    TFResponse response = stub.calculateTF(request);
-                    // Add all individual term scores to our list
-                    allTermScores.addAll(response.getDocumentScoresList());
-                } catch (Exception e) {
-                    System.err.println("Worker " + workerAddress + " failed: " + e.getMessage());
-                } finally {
-                    channel.shutdown();
+            // 3. Serve repeated queries (and further pages of the same query) from the cache,
+            // as long as the corpus has not changed since
+            String cacheKey = ResultCache.normalize(query) + (limit > 0 ? " #k=" + limit : "");
+            SearchResult result = resultCache.get(cacheKey, snapshot.getVersion());
+            exchange.getResponseHeaders().add("X-Search-Cache", result != null ? "HIT" : "MISS");
+
+            if (result == null) {
+                // 4. Get active workers from ServiceRegistry
+                List<String> workers = serviceRegistry.getAllServiceAddresses();
+                if (workers.isEmpty()) {
+                    sendResponse(exchange, 503, "No workers available in the cluster");
+                    return;
                 }
-            }
-
-            // --- NEW SCORING LOGIC WITH FAILURE CASE FIX ---
-
-            // 6. Calculate IDF for each term
-            // FIX: If user searches "car car", we get 2 results for "car" from the same file.
-            // We must use a SET to count unique documents per term to avoid IDF errors.
-            Map<String, Set<String>> termToDocs = new HashMap<>();
-
-            for (DocumentScore score : allTermScores) {
-                termToDocs.computeIfAbsent(score.getTerm(), k -> new HashSet<>()).add(score.getDocumentName());
-            }
-
-            Map<String, Double> idfMap = new HashMap<>();
-            for (Map.Entry<String, Set<String>> entry : termToDocs.entrySet()) {
-                String term = entry.getKey();
-                int docsWithTerm = entry.getValue().size(); // Correct unique count
 
-                // IDF = log(Total Docs / Docs with Term)
-                double idf = Math.log((double) allFiles.size() / docsWithTerm);
-                idfMap.put(term, idf);
+                // Distribute the files, query all workers concurrently (retrying failed shards on the others),
+                // merge their scores as they arrive and rank by TF-IDF.
+                // Every document costs the same: scoring one is a few postings lookups whatever its length,
+                // which is also why workers measure their throughput in documents per millisecond.
+                // Identical queries arriving while this one runs wait for it instead of querying the workers again.
+                result = inFlightQueries.execute(cacheKey + "@" + snapshot.getVersion(), () -> {
+                    SearchResult computed = searchCoordinator.search(query, allFiles, snapshot.getVersion(),
+                            file -> 1, workers, limit);
+                    resultCache.put(cacheKey, snapshot.getVersion(), computed);
+                    return computed;
+                });
             }
 
-            // 7. Calculate Total Score per Document
-            // Score = Sum(TF * IDF) for each term in the doc
-            Map<String, Double> finalDocScores = new HashMap<>();
-
-            for (DocumentScore score : allTermScores) {
-                double tf = score.getTfScore();
-                double idf = idfMap.getOrDefault(score.getTerm(), 0.0);
-                double termScore = tf * idf;
-
-                // Add to the document's total score
-                finalDocScores.put(
-                        score.getDocumentName(),
-                        finalDocScores.getOrDefault(score.getDocumentName(), 0.0) + termScore
-                );
+            // 5. Construct and send response. Coverage goes into headers so the body format stays unchanged.
+            addCoverageHeaders(exchange, result);
+            List<Map.Entry<String, Double>> ranking = result.getRanking();
+            if (pageSize > 0) {
+                List<Map.Entry<String, Double>> page = SearchCursor.page(ranking, searchAfter, pageSize);
+                exchange.getResponseHeaders().add("X-Search-Total-Hits", String.valueOf(ranking.size()));
+                if (!page.isEmpty() && page.get(page.size() - 1) != ranking.get(ranking.size() - 1)) {
+                    Map.Entry<String, Double> last = page.get(page.size() - 1);
+                    exchange.getResponseHeaders().add("X-Search-Next-Cursor",
+                            new SearchCursor(snapshot.getFingerprint(), last.getValue(), last.getKey()).encode());
+                }
+                ranking = page;
             }
-
-            // 8. Sort results (Descending order by score)
-            List<Map.Entry<String, Double>> sortedResults = finalDocScores.entrySet().stream()
-                    .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-                    .collect(Collectors.toList());
-
-            // 9. Construct and send response
             StringBuilder resultBuilder = new StringBuilder("Results for '" + query + "':\n");
-            for (Map.Entry<String, Double> entry : sortedResults) {
+            for (Map.Entry<String, Double> entry : ranking) {
                 resultBuilder.append(entry.getKey())
                         .append(" : ")
                         .append(String.format("%.4f", entry.getValue()))
@@ -277,6 +302,60 @@ public class SearchNode implements OnElectionCallback, Watcher {
         }
     }
 
+    /**
+     * Splits a URL query string into decoded name -> value pairs (the first value wins).
+     */
+    private static Map<String, String> parseParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            String[] keyValue = parameter.split("=", 2);
+            if (keyValue.length == 2) {
+                parameters.putIfAbsent(URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8),
+                        URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Parses an optional count parameter; 0 if absent.
+     */
+    private static int parseNonNegative(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int number = Integer.parseInt(value);
+        if (number < 0) {
+            throw new NumberFormatException("Negative count: " + number);
+        }
+        return number;
+    }
+
+    /**
+     * Reports the Leader's query metrics as plain "name=value" lines.
+     */
+    private void handleStatsRequest(HttpExchange exchange) throws IOException {
+        sendResponse(exchange, 200, resultCache.getStats() + inFlightQueries.getStats());
+    }
+
+    /**
+     * Adds X-Search-* headers telling the client how much of the corpus the results cover.
+     */
+    private void addCoverageHeaders(HttpExchange exchange, SearchResult result) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("X-Search-Coverage", result.getDocumentsScored() + "/" + result.getTotalDocuments());
+        headers.add("X-Search-Complete", String.valueOf(result.isComplete()));
+        if (!result.getTimedOutShards().isEmpty()) {
+            headers.add("X-Search-Timed-Out-Shards", String.join(",", result.getTimedOutShards()));
+        }
+        if (!result.getFailedShards().isEmpty()) {
+            headers.add("X-Search-Failed-Shards", String.join(",", result.getFailedShards()));
+        }
+    }
+
     private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
         exchange.sendResponseHeaders(statusCode, response.getBytes().length);
         OutputStream os = exchange.getResponseBody();
@@ -5,23 +5,31 @@ import org.apache.zookeeper.data.Stat;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ServiceRegistry implements Watcher {
     private static final String REGISTRY_NAMESPACE = "/registry";
     private final ZooKeeper zooKeeper;
+    private final WorkerChannelPool channelPool;
     private String currentZnode = null;
     private List<String> allServiceAddresses = new ArrayList<>();
+    private Map<String, WorkerCapacity> workerCapacities = new HashMap<>();
 
-    public ServiceRegistry(ZooKeeper zooKeeper) {
+    /**
+     * @param channelPool pool of gRPC channels to workers, kept in sync with the worker list seen by this registry
+     */
+    public ServiceRegistry(ZooKeeper zooKeeper, WorkerChannelPool channelPool) {
         this.zooKeeper = zooKeeper;
+        this.channelPool = channelPool;
         createServiceRegistryZnode();
     }
 
     /**
      * Registers the current node as a Worker in the cluster.
      * It creates an Ephemeral Sequential node containing the worker's address.
-     * @param metadata The address (IP:Port) of the worker.
+     * @param metadata The address (IP:Port) of the worker, optionally followed by its capacity (see {@link WorkerCapacity}).
      */
     public void registerToCluster(String metadata) throws KeeperException, InterruptedException {
         if (this.currentZnode != null) {
@@ -33,6 +41,16 @@ public class ServiceRegistry implements Watcher {
         System.out.println("Registered to service registry with address: " + metadata);
     }
 
+    /**
+     * Replaces the data of this worker's registry znode, e.g. to publish a new throughput measurement.
+     */
+    public void updateRegistration(String metadata) throws KeeperException, InterruptedException {
+        if (this.currentZnode == null) {
+            return;
+        }
+        zooKeeper.setData(currentZnode, metadata.getBytes(), -1);
+    }
+
     /**
      * Called by the Leader to start watching for updates in the worker list.
      */
@@ -59,6 +77,13 @@ public class ServiceRegistry implements Watcher {
         return Collections.unmodifiableList(allServiceAddresses);
     }
 
+    /**
+     * Returns the advertised capacity of every known worker, keyed by address.
+     */
+    public synchronized Map<String, WorkerCapacity> getWorkerCapacities() {
+        return workerCapacities;
+    }
+
     /**
      * Removes the node from the cluster (used when promoting to Leader or shutting down).
      */
@@ -67,6 +92,7 @@ public class ServiceRegistry implements Watcher {
             if (currentZnode != null && zooKeeper.exists(currentZnode, false) != null) {
                 zooKeeper.delete(currentZnode, -1);
             }
+            currentZnode = null;
         } catch (KeeperException | InterruptedException e) {
             e.printStackTrace();
         }
@@ -89,14 +115,16 @@ public class ServiceRegistry implements Watcher {
     }
 
     /**
-     * Fetches the latest list of workers from Zookeeper and updates the local cache.
-     * It also re-registers the Watcher to receive future updates.
+     * Fetches the latest list of workers from Zookeeper and updates the local cache and the channel pool.
+     * It also re-registers the Watcher to receive future updates, both of the worker list and of each worker's data
+     * (workers periodically republish their capacity).
      */
     private synchronized void updateAddresses() throws KeeperException, InterruptedException {
         // Get all child nodes (workers) and set a watch for future changes
         List<String> workerZnodes = zooKeeper.getChildren(REGISTRY_NAMESPACE, this);
 
         List<String> addresses = new ArrayList<>(workerZnodes.size());
+        Map<String, WorkerCapacity> capacities = new HashMap<>();
 
         for (String workerZnode : workerZnodes) {
             String workerFullPath = REGISTRY_NAMESPACE + "/" + workerZnode;
@@ -105,19 +133,28 @@ public class ServiceRegistry implements Watcher {
                 continue;
             }
 
-            // Read the worker's address stored in the Znode data
-            byte[] addressBytes = zooKeeper.getData(workerFullPath, false, stat);
-            String address = new String(addressBytes);
-            addresses.add(address);
+            // Read the worker's address (and capacity) stored in the Znode data
+            byte[] data;
+            try {
+                data = zooKeeper.getData(workerFullPath, this, stat);
+            } catch (KeeperException.NoNodeException e) {
+                continue; // Left between getChildren and getData
+            }
+            WorkerCapacity capacity = WorkerCapacity.parse(new String(data));
+            addresses.add(capacity.getAddress());
+            capacities.put(capacity.getAddress(), capacity);
         }
 
         this.allServiceAddresses = Collections.unmodifiableList(addresses);
+        this.workerCapacities = Collections.unmodifiableMap(capacities);
+        channelPool.updateWorkers(addresses);
         System.out.println("The cluster addresses are: " + this.allServiceAddresses);
     }
 
     @Override
     public void process(WatchedEvent event) {
         // This callback is triggered when the list of workers changes (NodeChildrenChanged)
+        // or when a worker republishes its capacity (NodeDataChanged)
         try {
             updateAddresses();
         } catch (KeeperException | InterruptedException e) {
@@ -0,0 +1,62 @@
+package com.distributed.search.cluster;
+
+import java.util.Locale;
+
+/**
+ * What a worker advertises about itself in its /registry znode: its gRPC address, how many scoring threads it has
+ * and its measured scoring throughput. Encoded as "host:port;cores=8;throughput=1234.5".
+ * A znode holding only "host:port" (older workers) parses as one core with unknown throughput.
+ */
+public class WorkerCapacity {
+
+    private final String address;
+    private final int cores;
+    private final double throughput; // Documents scored per millisecond, 0 if not measured yet
+
+    public WorkerCapacity(String address, int cores, double throughput) {
+        this.address = address;
+        this.cores = cores;
+        this.throughput = throughput;
+    }
+
+    public static WorkerCapacity parse(String data) {
+        String[] parts = data.split(";");
+        int cores = 1;
+        double throughput = 0;
+        for (int i = 1; i < parts.length; i++) {
+            String[] keyValue = parts[i].split("=", 2);
+            if (keyValue.length != 2) {
+                continue;
+            }
+            try {
+                if (keyValue[0].equals("cores")) {
+                    cores = Math.max(1, Integer.parseInt(keyValue[1]));
+                } else if (keyValue[0].equals("throughput")) {
+                    throughput = Math.max(0, Double.parseDouble(keyValue[1]));
+                }
+            } catch (NumberFormatException e) {
+                // Ignore a malformed field and keep the default
+            }
+        }
+        return new WorkerCapacity(parts[0], cores, throughput);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * The znode data for this capacity.
+     */
+    public String encode() {
+        return address + ";cores=" + cores + ";throughput=" + String.format(Locale.ROOT, "%.3f", throughput);
+    }
+}
@@ -0,0 +1,64 @@
+package com.distributed.search.cluster;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Long-lived gRPC channels from the Leader to every Worker, keyed by the worker's "host:port" address.
+ * {@link ServiceRegistry} keeps the pool in sync with cluster membership: a channel is opened when a worker joins
+ * and shut down when it leaves, so queries reuse warm HTTP/2 connections instead of dialing per request.
+ */
+public class WorkerChannelPool {
+
+    private final Map<String, ManagedChannel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the channel for a worker, opening one if membership updates have not caught up yet.
+     */
+    public ManagedChannel getChannel(String workerAddress) {
+        return channels.computeIfAbsent(workerAddress, WorkerChannelPool::openChannel);
+    }
+
+    /**
+     * Opens channels for newly joined workers and shuts down channels of workers that left.
+     * @param workerAddresses the current set of worker addresses
+     */
+    public synchronized void updateWorkers(List<String> workerAddresses) {
+        Set<String> current = new HashSet<>(workerAddresses);
+
+        for (String address : current) {
+            channels.computeIfAbsent(address, WorkerChannelPool::openChannel);
+        }
+        for (String address : new HashSet<>(channels.keySet())) {
+            if (!current.contains(address)) {
+                ManagedChannel channel = channels.remove(address);
+                if (channel != null) {
+                    // Graceful: in-flight calls finish, new calls are rejected
+                    channel.shutdown();
+                    System.out.println("Closed channel to departed worker " + address);
+                }
+            }
+        }
+    }
+
+    private static ManagedChannel openChannel(String workerAddress) {
+        // Extract host and port
+        String[] parts = workerAddress.split(":");
+        String host = parts[0];
+        int port = Integer.parseInt(parts[1]);
+
+        ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port)
+                .usePlaintext()
+                .build();
+        // Start connecting now, so the first query does not pay for the handshake
+        channel.getState(true);
+        System.out.println("Opened channel to worker " + workerAddress);
+        return channel;
+    }
+}
@@ -0,0 +1,163 @@
+package com.distributed.search.coordinator;
+
+import com.distributed.search.cluster.WorkerChannelPool;
+import com.distributed.search.model.TFBatchRequest;
+import com.distributed.search.model.TFBatchResponse;
+import com.distributed.search.model.TFResponse;
+import com.distributed.search.model.TFServiceGrpc;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leader-side micro-batcher: concurrent queries that send the same files to the same worker are held for a few
+ * milliseconds and then sent together as one {@code CalculateTFBatch} call, which the worker answers in a single pass
+ * over the documents. Under high load this replaces many RPCs (and many passes) with one.
+ * Each query still gets its own TFResponse, delivered to the observer it submitted.
+ */
+class QueryBatcher {
+
+    // How long the first query of a batch waits for others to join; 0 disables batching
+    static final long WINDOW_MS = Long.getLong("search.batch.window.ms", 0);
+    // A batch this large is sent right away
+    private static final int MAX_BATCH_QUERIES = 64;
+
+    private final WorkerChannelPool channelPool;
+    private final Map<BatchKey, Batch> openBatches = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "query-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    QueryBatcher(WorkerChannelPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    boolean isEnabled() {
+        return WINDOW_MS > 0;
+    }
+
+    /**
+     * Adds one query to the open batch for this worker and file list, opening a new batch if there is none.
+     * @param timeoutMs how long this query may wait for the worker. The batch uses the earliest deadline of its
+     *                  queries, so joining a batch never lets a query run past its own timeout.
+     */
+    void submit(String workerAddress, String query, List<String> files, long timeoutMs,
+                StreamObserver<TFResponse> responseObserver) {
+        BatchKey key = new BatchKey(workerAddress, files);
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = openBatches.get(key);
+            if (batch == null) {
+                batch = new Batch(key);
+                openBatches.put(key, batch);
+                Batch scheduled = batch;
+                timer.schedule(() -> flush(scheduled), WINDOW_MS, TimeUnit.MILLISECONDS);
+            }
+            long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            if (batch.queries.isEmpty() || deadlineNanos - batch.deadlineNanos < 0) {
+                batch.deadlineNanos = deadlineNanos;
+            }
+            batch.queries.add(query);
+            batch.observers.add(responseObserver);
+            if (batch.queries.size() >= MAX_BATCH_QUERIES) {
+                full = batch;
+            }
+        }
+        if (full != null) {
+            flush(full);
+        }
+    }
+
+    /**
+     * Sends a batch, unless it was already sent (by the timer or because it filled up).
+     */
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (openBatches.get(batch.key) != batch) {
+                return;
+            }
+            openBatches.remove(batch.key);
+        }
+
+        TFBatchRequest request = TFBatchRequest.newBuilder()
+                .addAllSearchQueries(batch.queries)
+                .addAllFilePaths(batch.key.files)
+                .setCompact(SearchCoordinator.COMPACT_WIRE)
+                .build();
+        long timeoutNanos = Math.max(1, batch.deadlineNanos - System.nanoTime());
+        TFServiceGrpc.newStub(channelPool.getChannel(batch.key.workerAddress))
+                .withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS)
+                .calculateTFBatch(request, new StreamObserver<TFBatchResponse>() {
+                    @Override
+                    public void onNext(TFBatchResponse response) {
+                        // Hand every query its own response
+                        for (int i = 0; i < batch.observers.size(); i++) {
+                            batch.observers.get(i).onNext(response.getResponses(i));
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        for (StreamObserver<TFResponse> observer : batch.observers) {
+                            observer.onError(t);
+                        }
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        for (StreamObserver<TFResponse> observer : batch.observers) {
+                            observer.onCompleted();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Queries can share a batch when they go to the same worker with the same files.
+     */
+    private static final class BatchKey {
+        final String workerAddress;
+        final List<String> files;
+        private final int hash;
+
+        BatchKey(String workerAddress, List<String> files) {
+            this.workerAddress = workerAddress;
+            this.files = files;
+            this.hash = Objects.hash(workerAddress, files);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            return hash == other.hash && workerAddress.equals(other.workerAddress) && files.equals(other.files);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Batch {
+        final BatchKey key;
+        final List<String> queries = new ArrayList<>();
+        final List<StreamObserver<TFResponse>> observers = new ArrayList<>();
+        long deadlineNanos;
+
+        Batch(BatchKey key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.distributed.search.coordinator;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leader-side cache of complete search results, keyed by the normalized query.
+ * Entries belong to one corpus version (the version of the Leader's index snapshot): as soon as a lookup sees a newer
+ * version, every cached result is dropped, so a document change is never hidden by the cache.
+ * Workers index the same change on their own schedule, so for a short while after a new version appears a worker may
+ * still score an older copy of a modified document. Results are therefore only cached once the version has settled
+ * (and a worker that has not indexed a document yet reports it missing, which makes the result partial and uncacheable).
+ * Bounded by entry count and by the estimated memory of the cached rankings (least recently used first), and by age.
+ */
+public class ResultCache {
+
+    // Maximum number of cached queries; 0 disables the cache
+    private static final int MAX_ENTRIES = Integer.getInteger("search.cache.size", 1000);
+    // Estimated bytes of all cached rankings; a query without a limit can rank the whole corpus
+    private static final long MAX_BYTES = Long.getLong("search.cache.bytes", 64L * 1024 * 1024);
+    // How long a result may be served from the cache
+    private static final long TTL_MS = Long.getLong("search.cache.ttl.ms", 60000);
+    // How long after a new corpus version appears results are not cached: long enough for every worker to index it
+    private static final long SETTLE_MS = Long.getLong("search.cache.settle.ms", 2 * Long.getLong("index.refresh.ms", 1000));
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long corpusVersion = -1;
+    private long versionSeenNanos;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Cache key of a query: lowercased, split on whitespace and with its terms sorted, so "Car  big" and "BIG car"
+     * share an entry. Repeated terms are kept, because they count twice in the score.
+     */
+    public static String normalize(String query) {
+        String[] terms = query.trim().toLowerCase().split("\\s+");
+        Arrays.sort(terms);
+        return String.join(" ", terms);
+    }
+
+    /**
+     * Returns the cached result for the key, or null if there is none for this corpus version or it has expired.
+     */
+    public synchronized SearchResult get(String key, long version) {
+        if (MAX_ENTRIES == 0) {
+            return null;
+        }
+        checkVersion(version);
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.createdNanos > TimeUnit.MILLISECONDS.toNanos(TTL_MS)) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * Caches a result computed against the given corpus version. Partial results, and results computed while the
+     * version was still settling, are never cached.
+     */
+    public synchronized void put(String key, long version, SearchResult result) {
+        if (MAX_ENTRIES == 0 || !result.isComplete()) {
+            return;
+        }
+        checkVersion(version);
+        if (version != corpusVersion
+                || System.nanoTime() - versionSeenNanos < TimeUnit.MILLISECONDS.toNanos(SETTLE_MS)) {
+            return;
+        }
+        Entry entry = new Entry(key, result);
+        if (entry.bytes > MAX_BYTES) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+
+        // Evict least recently used entries until both bounds hold
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES || bytes > MAX_BYTES) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Hit/miss counters and current size, one "name=value" per line.
+     */
+    public synchronized String getStats() {
+        long lookups = hits + misses;
+        return "cache.entries=" + entries.size() + "\n"
+                + "cache.bytes=" + bytes + "\n"
+                + "cache.hits=" + hits + "\n"
+                + "cache.misses=" + misses + "\n"
+                + "cache.hit.ratio=" + String.format("%.4f", lookups == 0 ? 0.0 : (double) hits / lookups) + "\n"
+                + "cache.evictions=" + evictions + "\n"
+                + "cache.invalidations=" + invalidations + "\n"
+                + "cache.corpus.version=" + corpusVersion + "\n";
+    }
+
+    /**
+     * Drops everything cached for an older corpus version. A result computed on an older snapshot than the one
+     * already seen is simply not cached.
+     */
+    private void checkVersion(long version) {
+        if (version > corpusVersion) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+            }
+            entries.clear();
+            bytes = 0;
+            corpusVersion = version;
+            versionSeenNanos = System.nanoTime();
+        }
+    }
+
+    private static final class Entry {
+        // Rough heap cost of one ranked document (map entry, boxed score, name) beyond its characters
+        private static final int BYTES_PER_DOCUMENT = 64;
+
+        final SearchResult result;
+        final long createdNanos = System.nanoTime();
+        final long bytes;
+
+        Entry(String key, SearchResult result) {
+            this.result = result;
+            long estimate = 128 + 2L * key.length();
+            for (Map.Entry<String, Double> document : result.getRanking()) {
+                estimate += BYTES_PER_DOCUMENT + 2L * document.getKey().length();
+            }
+            this.bytes = estimate;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.distributed.search.coordinator;
+
+import com.distributed.search.model.CompactScores;
+import com.distributed.search.model.DocumentScore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Merges (document, term, TF) scores from workers as they arrive and turns them into a TF-IDF ranking.
+ * Thread safe: responses from different workers are added concurrently.
+ * Once the ranking is taken the aggregator is closed, and late responses are rejected,
+ * so the ranking and the coverage numbers always describe the same set of documents.
+ */
+public class ScoreAggregator {
+
+    // Order of every ranking: best score first, ties by document name
+    static final Comparator<Map.Entry<String, Double>> BEST_FIRST = Map.Entry.<String, Double>comparingByValue().reversed()
+            .thenComparing(Map.Entry.comparingByKey());
+
+    // document -> (term -> summed TF). Summing keeps "car car" counting the term twice, as before.
+    private final Map<String, Map<String, Double>> documentTermScores = new HashMap<>();
+
+    // term -> number of distinct documents containing it (the "unique documents" fix for IDF)
+    private final Map<String, Integer> documentsPerTerm = new HashMap<>();
+
+    private int documentsScored;
+    private boolean closed;
+
+    /**
+     * Merges one batch of worker scores.
+     * @param documentCount how many documents the batch covers (including those without any match)
+     * @return false if the batch arrived after the ranking was taken and was ignored
+     */
+    public synchronized boolean add(List<DocumentScore> scores, int documentCount) {
+        return add(scores, documentCount, Map.of());
+    }
+
+    /**
+     * Merges one batch of worker scores that the worker may have trimmed to its local top K.
+     * @param termDocumentCounts documents per term as counted by the worker before trimming; empty if not trimmed
+     * @return false if the batch arrived after the ranking was taken and was ignored
+     */
+    public synchronized boolean add(List<DocumentScore> scores, int documentCount, Map<String, Integer> termDocumentCounts) {
+        if (closed) {
+            return false;
+        }
+        documentsScored += documentCount;
+        addTermDocumentCounts(termDocumentCounts);
+        for (DocumentScore score : scores) {
+            addScore(score.getDocumentName(), score.getTerm(), score.getTfScore(), termDocumentCounts.isEmpty());
+        }
+        return true;
+    }
+
+    /**
+     * Merges one batch of worker scores sent in the compact wire format.
+     * @param documentCount how many documents the batch covers (including those without any match)
+     * @return false if the batch arrived after the ranking was taken and was ignored
+     */
+    public synchronized boolean add(CompactScores scores, int documentCount, Map<String, Integer> termDocumentCounts) {
+        if (closed) {
+            return false;
+        }
+        documentsScored += documentCount;
+        addTermDocumentCounts(termDocumentCounts);
+        for (int i = 0; i < scores.getTfScoresCount(); i++) {
+            addScore(scores.getDocumentNames(scores.getDocumentIds(i)), scores.getTerms(scores.getTermIds(i)),
+                    scores.getTfScores(i), termDocumentCounts.isEmpty());
+        }
+        return true;
+    }
+
+    private void addTermDocumentCounts(Map<String, Integer> termDocumentCounts) {
+        for (Map.Entry<String, Integer> entry : termDocumentCounts.entrySet()) {
+            documentsPerTerm.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    /**
+     * @param countDocument whether a document seen for the first time with this term counts towards its IDF
+     *                      (false when the worker already reported the counts)
+     */
+    private void addScore(String document, String term, double tf, boolean countDocument) {
+        Map<String, Double> termScores = documentTermScores.computeIfAbsent(document, k -> new HashMap<>());
+        Double previous = termScores.put(term, termScores.getOrDefault(term, 0.0) + tf);
+        if (previous == null && countDocument) {
+            documentsPerTerm.merge(term, 1, Integer::sum);
+        }
+    }
+
+    public synchronized int getDocumentsScored() {
+        return documentsScored;
+    }
+
+    /**
+     * Closes the aggregator and computes the final ranking, best match first (ties by document name).
+     * @param totalDocuments number of documents in the corpus (numerator of IDF)
+     * @param limit how many documents to return, 0 for all. Only the best {@code limit} are kept while scoring,
+     *              in a bounded min-heap, so only those are sorted.
+     */
+    public synchronized List<Map.Entry<String, Double>> rank(int totalDocuments, int limit) {
+        closed = true;
+
+        // 1. Calculate IDF for each term: IDF = log(Total Docs / Docs with Term)
+        Map<String, Double> idfMap = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : documentsPerTerm.entrySet()) {
+            idfMap.put(entry.getKey(), Math.log((double) totalDocuments / entry.getValue()));
+        }
+
+        // 2. Calculate Total Score per Document: Score = Sum(TF * IDF) for each term in the doc
+        boolean bounded = limit > 0 && limit < documentTermScores.size();
+        PriorityQueue<Map.Entry<String, Double>> topK = bounded ? new PriorityQueue<>(limit + 1, BEST_FIRST.reversed()) : null;
+        List<Map.Entry<String, Double>> results = new ArrayList<>(bounded ? limit : documentTermScores.size());
+        for (Map.Entry<String, Map<String, Double>> document : documentTermScores.entrySet()) {
+            double score = 0;
+            for (Map.Entry<String, Double> term : document.getValue().entrySet()) {
+                score += term.getValue() * idfMap.getOrDefault(term.getKey(), 0.0);
+            }
+            if (bounded) {
+                // The heap's head is the worst of the current top K
+                topK.add(Map.entry(document.getKey(), score));
+                if (topK.size() > limit) {
+                    topK.poll();
+                }
+            } else {
+                results.add(Map.entry(document.getKey(), score));
+            }
+        }
+        if (bounded) {
+            results.addAll(topK);
+        }
+
+        // 3. Sort results (Descending order by score)
+        results.sort(BEST_FIRST);
+        return results;
+    }
+}
@@ -0,0 +1,256 @@
+package com.distributed.search.coordinator;
+
+import com.distributed.search.cluster.ServiceRegistry;
+import com.distributed.search.cluster.WorkerChannelPool;
+import com.distributed.search.model.TFRequest;
+import com.distributed.search.model.TFResponse;
+import com.distributed.search.model.TFServiceGrpc;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Leader-side scatter-gather: sends every worker its share of the documents at the same time
+ * and merges the responses as they arrive, so query latency follows the slowest worker instead of the sum of all.
+ * Workers stream their scores in batches ({@code CalculateTFStream}), so merging overlaps with scoring and neither side
+ * buffers a whole shard's scores. With {@code -Dsearch.batch.window.ms} set, concurrent queries are instead grouped
+ * by {@link QueryBatcher} into one {@code CalculateTFBatch} call per worker.
+ * Every query has a deadline, propagated to the workers through gRPC. A single attempt on one worker only gets
+ * part of that budget: if it fails or runs out of time, its files are redistributed among the remaining healthy
+ * workers and retried while the query budget lasts. Whatever is still missing at the deadline is reported
+ * as coverage information naming the shards that did not answer.
+ * With {@code -Dsearch.work.stealing=true}, large queries are run pull-based by {@link WorkStealingSearch} instead.
+ */
+public class SearchCoordinator {
+
+    // Upper bound on how long a query waits for its workers
+    private static final long QUERY_DEADLINE_MS = Long.getLong("search.deadline.ms", 5000);
+    // Upper bound for one attempt on one worker; smaller than the query deadline so a retry still fits
+    private static final long SHARD_TIMEOUT_MS = Long.getLong("search.shard.timeout.ms", QUERY_DEADLINE_MS / 2);
+    // How many times the same files may be sent to a worker within one query
+    private static final int MAX_ATTEMPTS = 3;
+    // Not worth retrying with less time left than this
+    private static final long MIN_RETRY_BUDGET_MS = 50;
+    // Optional pull-based execution, where workers take small chunks from a shared queue (see WorkStealingSearch)
+    private static final boolean WORK_STEALING = Boolean.getBoolean("search.work.stealing");
+    // Ask workers for the compact wire format (term and document tables plus packed ids and float scores)
+    static final boolean COMPACT_WIRE = Boolean.parseBoolean(System.getProperty("search.compact.wire", "true"));
+
+    private final WorkerChannelPool channelPool;
+    private final ServiceRegistry serviceRegistry;
+    private final ShardAssigner shardAssigner = new ShardAssigner();
+    private final WorkStealingSearch workStealingSearch;
+    private final QueryBatcher queryBatcher;
+
+    public SearchCoordinator(WorkerChannelPool channelPool, ServiceRegistry serviceRegistry) {
+        this.channelPool = channelPool;
+        this.serviceRegistry = serviceRegistry;
+        this.workStealingSearch = new WorkStealingSearch(channelPool);
+        this.queryBatcher = new QueryBatcher(channelPool);
+    }
+
+    /**
+     * Distributes the documents over the workers (stable rendezvous ownership, balanced by document cost and worker
+     * capacity), queries them concurrently and returns the ranked documents with their coverage.
+     * @param allFiles every document in the corpus
+     * @param corpusVersion version of the index snapshot the documents and their costs come from; while it stays the
+     *                      same (and so do the workers), the previous query's assignment is reused
+     * @param documentCost scoring cost of each document, in the unit of the workers' throughput (documents per ms)
+     * @param workers the workers to start with; failed shards are retried on other registered workers
+     * @param limit number of documents to rank, 0 for all; workers pre-trim their scores to it where possible
+     */
+    public SearchResult search(String query, List<String> allFiles, long corpusVersion, ToLongFunction<String> documentCost,
+                               List<String> workers, int limit) throws InterruptedException {
+        // Work stealing only pays off once there are several chunks per worker; smaller queries use one request each
+        if (WORK_STEALING && allFiles.size() > WorkStealingSearch.CHUNK_FILES * workers.size()) {
+            return workStealingSearch.search(query, allFiles, workers, limit, QUERY_DEADLINE_MS);
+        }
+
+        QueryExecution execution = new QueryExecution(query, allFiles.size(), documentCost, limit);
+
+        // 1. Fire all requests without waiting for any of them
+        Map<String, List<String>> tasks = shardAssigner.assignCorpus(corpusVersion, allFiles, workers, documentCost,
+                serviceRegistry.getWorkerCapacities());
+        for (Map.Entry<String, List<String>> task : tasks.entrySet()) {
+            execution.dispatch(task.getKey(), task.getValue(), 1);
+        }
+
+        // 2. Wait for the last shard (including retries), or until the deadline
+        return execution.await();
+    }
+
+    /**
+     * State of one query: merged scores, attempts still in flight and workers that already failed it.
+     */
+    private class QueryExecution {
+        private final String query;
+        private final int totalDocuments;
+        private final ToLongFunction<String> documentCost;
+        private final int limit;
+        private final long deadlineNanos;
+        private final ScoreAggregator aggregator = new ScoreAggregator();
+        private final Set<String> failedWorkers = ConcurrentHashMap.newKeySet();
+        private final Map<Attempt, Boolean> inFlight = new ConcurrentHashMap<>();
+        private final List<String> timedOut = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+
+        QueryExecution(String query, int totalDocuments, ToLongFunction<String> documentCost, int limit) {
+            this.query = query;
+            this.totalDocuments = totalDocuments;
+            this.documentCost = documentCost;
+            this.limit = limit;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUERY_DEADLINE_MS);
+        }
+
+        /**
+         * Splits files between workers according to their cost and the workers' latest advertised capacity
+         * (used for retries; the first assignment of the corpus is cached by the ShardAssigner).
+         */
+        Map<String, List<String>> assign(List<String> files, List<String> workers) {
+            return shardAssigner.assign(files, workers, documentCost, serviceRegistry.getWorkerCapacities());
+        }
+
+        /**
+         * Sends one shard to one worker. The attempt's deadline is the smaller of the shard timeout and the time left.
+         */
+        void dispatch(String workerAddress, List<String> files, int attemptNumber) {
+            Attempt attempt = new Attempt(workerAddress, files, attemptNumber);
+            inFlight.put(attempt, true);
+
+            StreamObserver<TFResponse> responseObserver = new StreamObserver<TFResponse>() {
+                @Override
+                public void onNext(TFResponse batch) {
+                    // Merge each batch as soon as it lands (rejected if the query already returned).
+                    // Files the worker had not indexed yet were not scored, and do not count towards coverage
+                    int scored = batch.getDocumentsProcessed() - batch.getDocumentsMissing();
+                    boolean merged = batch.hasCompactScores()
+                            ? aggregator.add(batch.getCompactScores(), scored, batch.getTermDocumentCountsMap())
+                            : aggregator.add(batch.getDocumentScoresList(), scored, batch.getTermDocumentCountsMap());
+                    if (merged) {
+                        attempt.processed += batch.getDocumentsProcessed();
+                    } else {
+                        recordLoss(workerAddress, true);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    onAttemptFailed(attempt, Status.fromThrowable(t));
+                }
+
+                @Override
+                public void onCompleted() {
+                    finish(attempt);
+                }
+            };
+
+            long timeoutMs = Math.min(SHARD_TIMEOUT_MS, remainingMs());
+            if (attemptNumber == 1 && queryBatcher.isEnabled()) {
+                // First attempts may share a CalculateTFBatch call with concurrent queries; retries go out on their own
+                queryBatcher.submit(workerAddress, query, files, timeoutMs, responseObserver);
+                return;
+            }
+            TFRequest request = TFRequest.newBuilder()
+                    .setSearchQuery(query)
+                    .addAllFilePaths(files)
+                    .setCompact(COMPACT_WIRE)
+                    .setTopK(limit)
+                    .build();
+            TFServiceGrpc.newStub(channelPool.getChannel(workerAddress))
+                    .withDeadlineAfter(timeoutMs, TimeUnit.MILLISECONDS)
+                    .calculateTFStream(request, responseObserver);
+        }
+
+        /**
+         * Reassigns the files a failed attempt had not yet returned to the healthy workers, if attempts and time remain.
+         */
+        private void onAttemptFailed(Attempt attempt, Status status) {
+            System.err.println("Worker " + attempt.workerAddress + " failed: " + status);
+            failedWorkers.add(attempt.workerAddress);
+            // Workers stream files in request order, so everything before 'processed' is already merged
+            List<String> remaining = attempt.files.subList(attempt.processed, attempt.files.size());
+            if (remaining.isEmpty()) {
+                finish(attempt);
+                return;
+            }
+
+            List<String> healthy = new ArrayList<>(serviceRegistry.getAllServiceAddresses());
+            healthy.removeAll(failedWorkers);
+            if (attempt.number < MAX_ATTEMPTS && !healthy.isEmpty() && remainingMs() >= MIN_RETRY_BUDGET_MS) {
+                System.out.println("Retrying " + remaining.size() + " documents of " + attempt.workerAddress
+                        + " on " + healthy);
+                // Dispatch the retries before finishing the failed attempt, so the query never looks done in between
+                for (Map.Entry<String, List<String>> task : assign(remaining, healthy).entrySet()) {
+                    dispatch(task.getKey(), task.getValue(), attempt.number + 1);
+                }
+            } else {
+                recordLoss(attempt.workerAddress, status.getCode() == Status.Code.DEADLINE_EXCEEDED);
+            }
+            finish(attempt);
+        }
+
+        private void finish(Attempt attempt) {
+            inFlight.remove(attempt);
+            synchronized (this) {
+                if (inFlight.isEmpty()) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized void recordLoss(String workerAddress, boolean timedOutLoss) {
+            List<String> target = timedOutLoss ? timedOut : failed;
+            if (!target.contains(workerAddress)) {
+                target.add(workerAddress);
+            }
+        }
+
+        /**
+         * Blocks until every attempt has finished or the query deadline passes, then ranks what arrived.
+         */
+        synchronized SearchResult await() throws InterruptedException {
+            while (!inFlight.isEmpty() && remainingMs() > 0) {
+                wait(Math.max(1, remainingMs()));
+            }
+            List<Map.Entry<String, Double>> ranking = aggregator.rank(totalDocuments, limit);
+
+            // Anything still in flight at the deadline timed out
+            for (Attempt attempt : inFlight.keySet()) {
+                recordLoss(attempt.workerAddress, true);
+            }
+            if (!timedOut.isEmpty() || !failed.isEmpty()) {
+                System.err.println("Partial results for '" + query + "': " + aggregator.getDocumentsScored() + "/"
+                        + totalDocuments + " documents scored, timed out: " + timedOut + ", failed: " + failed);
+            }
+            return new SearchResult(ranking, aggregator.getDocumentsScored(), totalDocuments,
+                    new ArrayList<>(timedOut), new ArrayList<>(failed));
+        }
+
+        private long remainingMs() {
+            return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        }
+    }
+
+    /**
+     * One RPC: a list of files sent to one worker.
+     */
+    private static final class Attempt {
+        final String workerAddress;
+        final List<String> files;
+        final int number;
+        volatile int processed; // Files already covered by streamed batches
+
+        Attempt(String workerAddress, List<String> files, int number) {
+            this.workerAddress = workerAddress;
+            this.files = files;
+            this.number = number;
+        }
+    }
+}
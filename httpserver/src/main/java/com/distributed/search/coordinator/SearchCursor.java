@@ -0,0 +1,78 @@
+package com.distributed.search.coordinator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opaque "search_after" token for paging through a ranking: the last (score, document) pair a client has seen,
+ * plus the fingerprint of the corpus the ranking was computed on (derived from the documents themselves, so a cursor
+ * stays valid on a new Leader, and is rejected by one that has a different corpus). Rankings are totally ordered
+ * (score, then name), so the next page starts right after that pair and is found by binary search, whatever the page
+ * depth.
+ * The score is kept as its exact bits, so no rounding can skip or repeat a document.
+ */
+public final class SearchCursor {
+
+    private static final String FORMAT_VERSION = "v2";
+
+    private final long corpusFingerprint;
+    private final double score;
+    private final String documentName;
+
+    public SearchCursor(long corpusFingerprint, double score, String documentName) {
+        this.corpusFingerprint = corpusFingerprint;
+        this.score = score;
+        this.documentName = documentName;
+    }
+
+    /**
+     * Parses a token produced by {@link #encode()}.
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static SearchCursor decode(String token) {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        String[] parts = decoded.split("\\|", 4);
+        if (parts.length != 4 || !parts[0].equals(FORMAT_VERSION)) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        try {
+            return new SearchCursor(Long.parseUnsignedLong(parts[1], 16),
+                    Double.longBitsToDouble(Long.parseUnsignedLong(parts[2], 16)), parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    /**
+     * URL-safe token for this cursor.
+     */
+    public String encode() {
+        String plain = FORMAT_VERSION + "|" + Long.toHexString(corpusFingerprint) + "|"
+                + Long.toHexString(Double.doubleToLongBits(score)) + "|" + documentName;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getCorpusFingerprint() {
+        return corpusFingerprint;
+    }
+
+    /**
+     * Returns one page of a ranking.
+     * @param after where the previous page ended, or null for the first page
+     * @param size maximum number of entries
+     */
+    public static List<Map.Entry<String, Double>> page(List<Map.Entry<String, Double>> ranking, SearchCursor after,
+                                                       int size) {
+        int from = 0;
+        if (after != null) {
+            // The position of the cursor's pair, or where it would be inserted; either way the page starts after it
+            int position = Collections.binarySearch(ranking, Map.entry(after.documentName, after.score),
+                    ScoreAggregator.BEST_FIRST);
+            from = position >= 0 ? position + 1 : -position - 1;
+        }
+        return ranking.subList(from, Math.min(ranking.size(), from + size));
+    }
+}
@@ -0,0 +1,64 @@
+package com.distributed.search.coordinator;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one distributed query: the ranking plus how much of the corpus it actually covers.
+ * A result is partial when some shards timed out or failed, or a worker had not indexed some documents yet;
+ * those documents are missing from the ranking.
+ */
+public class SearchResult {
+
+    private final List<Map.Entry<String, Double>> ranking;
+    private final int documentsScored;
+    private final int totalDocuments;
+    private final List<String> timedOutShards;
+    private final List<String> failedShards;
+
+    public SearchResult(List<Map.Entry<String, Double>> ranking, int documentsScored, int totalDocuments,
+                        List<String> timedOutShards, List<String> failedShards) {
+        this.ranking = ranking;
+        this.documentsScored = documentsScored;
+        this.totalDocuments = totalDocuments;
+        this.timedOutShards = Collections.unmodifiableList(timedOutShards);
+        this.failedShards = Collections.unmodifiableList(failedShards);
+    }
+
+    /**
+     * Documents with a non-zero match, best first.
+     */
+    public List<Map.Entry<String, Double>> getRanking() {
+        return ranking;
+    }
+
+    /**
+     * Number of documents whose worker answered before the deadline and had them in its index.
+     */
+    public int getDocumentsScored() {
+        return documentsScored;
+    }
+
+    public int getTotalDocuments() {
+        return totalDocuments;
+    }
+
+    /**
+     * Workers that had not answered when the query deadline expired.
+     */
+    public List<String> getTimedOutShards() {
+        return timedOutShards;
+    }
+
+    /**
+     * Workers whose call failed for any other reason.
+     */
+    public List<String> getFailedShards() {
+        return failedShards;
+    }
+
+    public boolean isComplete() {
+        return documentsScored == totalDocuments;
+    }
+}
@@ -0,0 +1,208 @@
+package com.distributed.search.coordinator;
+
+import com.distributed.search.cluster.WorkerCapacity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Decides which worker owns which document, using weighted rendezvous (highest random weight) hashing with bounded load.
+ * Every (worker, document) pair gets a pseudo-random score, scaled by the worker's weight, and the document goes to the
+ * worker with the highest one. The result depends only on the set of workers, not on their order or on directory
+ * listing order, and when a worker joins or leaves mostly only the documents it wins or owned move, so worker-side
+ * caches stay warm.
+ * Ownership is weighted by the workers' core counts only, which do not change while they run.
+ * Workers are not equally fast, so each worker also gets a cost budget proportional to its measured throughput: a
+ * document that would push its preferred worker past the budget goes to the next worker in its ranking instead.
+ * As long as document costs are in the unit the throughput is measured in, every worker should finish at about the
+ * same time, and a new throughput measurement only moves the documents at the edge of a budget, not the rendezvous
+ * ownership of the whole corpus.
+ * Assigning the whole corpus costs a sort and a hash per (worker, document) pair, so that assignment is cached until
+ * the corpus, the workers or their capacities change.
+ */
+public class ShardAssigner {
+
+    // How far above its fair share of the cost a worker may go before documents spill over to the next worker
+    private static final double LOAD_SLACK = 0.1;
+
+    // The last assignment of a whole corpus, and what it was computed from
+    private volatile CachedAssignment cached;
+
+    /**
+     * Same as {@link #assign}, but returns the previous result as long as the corpus version, the workers and their
+     * capacities are the same. The returned lists are shared between queries and must not be modified.
+     * @param corpusVersion version of the index snapshot the files and their costs come from
+     */
+    public Map<String, List<String>> assignCorpus(long corpusVersion, List<String> files, List<String> workers,
+                                                  ToLongFunction<String> cost, Map<String, WorkerCapacity> capacities) {
+        String key = corpusVersion + "|" + capacityKey(workers, capacities);
+        CachedAssignment current = cached;
+        if (current != null && current.key.equals(key)) {
+            return current.tasks;
+        }
+        synchronized (this) {
+            // Queries arriving together after a change wait for one computation instead of each doing their own
+            current = cached;
+            if (current != null && current.key.equals(key)) {
+                return current.tasks;
+            }
+            Map<String, List<String>> tasks = new HashMap<>();
+            for (Map.Entry<String, List<String>> task : assign(files, workers, cost, capacities).entrySet()) {
+                tasks.put(task.getKey(), Collections.unmodifiableList(task.getValue()));
+            }
+            cached = new CachedAssignment(key, Collections.unmodifiableMap(tasks));
+            return cached.tasks;
+        }
+    }
+
+    /**
+     * Groups the files by owning worker, balancing the total cost per worker against the workers' capacities.
+     * Ownership is weighted by core count; budgets by measured throughput when all workers report one,
+     * otherwise by core count as well.
+     * @param workers candidate workers; must not be empty
+     * @param cost scoring cost of a file, in the unit of the workers' throughput (workers measure documents per ms)
+     * @param capacities advertised capacity per worker address; missing workers count as one core
+     */
+    public Map<String, List<String>> assign(List<String> files, List<String> workers, ToLongFunction<String> cost,
+                                            Map<String, WorkerCapacity> capacities) {
+        // 1. Weigh the workers and split the total cost between them
+        double[] ownershipWeights = ownershipWeights(workers, capacities);
+        double[] weights = capacityWeights(workers, capacities, ownershipWeights);
+        double totalWeight = 0;
+        for (double weight : weights) {
+            totalWeight += weight;
+        }
+        Map<String, Long> costs = new HashMap<>(files.size() * 2);
+        long totalCost = 0;
+        for (String file : files) {
+            long fileCost = Math.max(1, cost.applyAsLong(file));
+            costs.put(file, fileCost);
+            totalCost += fileCost;
+        }
+        double[] budgets = new double[workers.size()];
+        for (int i = 0; i < budgets.length; i++) {
+            budgets[i] = totalCost * weights[i] / totalWeight * (1 + LOAD_SLACK);
+        }
+
+        // 2. Place the most expensive files first, so the cheap ones can fill the gaps at the end
+        List<String> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong((String file) -> costs.get(file)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        // 3. Each file goes to the highest-ranked worker that stays within its budget,
+        // or, if all of them would overflow, to the one with the lowest relative load
+        Map<String, List<String>> tasks = new HashMap<>();
+        double[] loads = new double[workers.size()];
+        for (String file : ordered) {
+            long fileCost = costs.get(file);
+            int chosen = -1;
+            double chosenScore = 0;
+            int leastLoaded = -1;
+            for (int i = 0; i < workers.size(); i++) {
+                if (loads[i] + fileCost <= budgets[i]) {
+                    double score = score(workers.get(i), file, ownershipWeights[i]);
+                    if (chosen < 0 || score > chosenScore
+                            || (score == chosenScore && workers.get(i).compareTo(workers.get(chosen)) < 0)) {
+                        chosen = i;
+                        chosenScore = score;
+                    }
+                }
+                if (leastLoaded < 0 || (loads[i] + fileCost) / weights[i] < (loads[leastLoaded] + fileCost) / weights[leastLoaded]) {
+                    leastLoaded = i;
+                }
+            }
+            if (chosen < 0) {
+                chosen = leastLoaded;
+            }
+            loads[chosen] += fileCost;
+            tasks.computeIfAbsent(workers.get(chosen), k -> new ArrayList<>()).add(file);
+        }
+        return tasks;
+    }
+
+    /**
+     * Weighted rendezvous score: -weight / ln(u), with u uniform in (0, 1) derived from the pair's hash.
+     * A worker with twice the weight wins about twice as many documents.
+     */
+    static double score(String worker, String file, double weight) {
+        double uniform = ((hash(worker, file) >>> 11) + 0.5) / (1L << 53);
+        return -weight / Math.log(uniform);
+    }
+
+    /**
+     * Rendezvous weights: core counts (one for a worker without a capacity record).
+     */
+    private static double[] ownershipWeights(List<String> workers, Map<String, WorkerCapacity> capacities) {
+        double[] weights = new double[workers.size()];
+        for (int i = 0; i < weights.length; i++) {
+            WorkerCapacity capacity = capacities.get(workers.get(i));
+            weights[i] = capacity == null ? 1 : capacity.getCores();
+        }
+        return weights;
+    }
+
+    /**
+     * Budget weights: measured throughputs if every worker has one (they must all be in the same unit),
+     * otherwise the ownership weights.
+     */
+    private static double[] capacityWeights(List<String> workers, Map<String, WorkerCapacity> capacities,
+                                            double[] ownershipWeights) {
+        double[] weights = new double[workers.size()];
+        for (int i = 0; i < weights.length; i++) {
+            WorkerCapacity capacity = capacities.get(workers.get(i));
+            if (capacity == null || capacity.getThroughput() <= 0) {
+                return ownershipWeights;
+            }
+            weights[i] = capacity.getThroughput();
+        }
+        return weights;
+    }
+
+    /**
+     * Everything about the workers an assignment depends on, in their order.
+     */
+    private static String capacityKey(List<String> workers, Map<String, WorkerCapacity> capacities) {
+        StringBuilder key = new StringBuilder();
+        for (String worker : workers) {
+            WorkerCapacity capacity = capacities.get(worker);
+            key.append(capacity == null ? worker : capacity.encode()).append(',');
+        }
+        return key.toString();
+    }
+
+    /**
+     * 64-bit FNV-1a over both strings, finished with the SplitMix64 mixer. Stable across JVMs and restarts.
+     */
+    static long hash(String worker, String file) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, worker);
+        hash = (hash ^ 0xFF) * 0x100000001b3L; // Separator, so ("ab", "c") and ("a", "bc") differ
+        hash = fnv(hash, file);
+
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static final class CachedAssignment {
+        final String key;
+        final Map<String, List<String>> tasks;
+
+        CachedAssignment(String key, Map<String, List<String>> tasks) {
+            this.key = key;
+            this.tasks = tasks;
+        }
+    }
+}
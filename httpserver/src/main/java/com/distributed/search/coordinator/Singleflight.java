@@ -0,0 +1,56 @@
+package com.distributed.search.coordinator;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the work, every caller that arrives while it is
+ * still running waits for and shares its result (or its exception). Once the work finishes the key is forgotten,
+ * so the next call runs it again.
+ * The Leader uses it so that a burst of identical queries causes a single scatter-gather.
+ */
+public class Singleflight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Runs the work for this key, or joins the run already in progress.
+     */
+    public T execute(String key, Callable<T> work) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        executed.increment();
+        try {
+            T result = work.call();
+            future.complete(result);
+            return result;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Executed and coalesced call counts, one "name=value" per line.
+     */
+    public String getStats() {
+        return "singleflight.executed=" + executed.sum() + "\n"
+                + "singleflight.coalesced=" + coalesced.sum() + "\n";
+    }
+}
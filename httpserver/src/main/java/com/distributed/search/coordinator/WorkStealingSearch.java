@@ -0,0 +1,305 @@
+package com.distributed.search.coordinator;
+
+import com.distributed.search.cluster.WorkerChannelPool;
+import com.distributed.search.model.ChunkResult;
+import com.distributed.search.model.TFServiceGrpc;
+import com.distributed.search.model.WorkChunk;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pull-based alternative to the static scatter-gather of {@link SearchCoordinator}: the corpus is cut into small chunks
+ * kept in one queue on the Leader, and every worker gets a bidirectional stream ({@code ProcessChunks}) over which it
+ * pulls the next chunk each time it returns a result. Fast workers simply pull more often, so a slow worker only ever
+ * holds a couple of chunks. Once the queue is empty, an idle worker also takes a backup copy of a chunk still
+ * outstanding on another worker; whichever copy finishes first counts.
+ * If a stream fails, its outstanding chunks go back to the front of the queue for the remaining workers.
+ */
+class WorkStealingSearch {
+
+    // Files per chunk: small enough that the last chunks finish close together, large enough to amortise a round trip
+    static final int CHUNK_FILES = Integer.getInteger("search.chunk.files", 64);
+    // Chunks a worker holds at once, so it never sits idle waiting for the next one to arrive
+    private static final int PREFETCH = 2;
+
+    private final WorkerChannelPool channelPool;
+
+    WorkStealingSearch(WorkerChannelPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    /**
+     * Runs one query in work-stealing mode.
+     * @param limit number of documents to rank, 0 for all
+     * @param deadlineMs time the whole query may take; chunks still outstanding then are reported as timed out
+     */
+    SearchResult search(String query, List<String> allFiles, List<String> workers, int limit, long deadlineMs)
+            throws InterruptedException {
+        Execution execution = new Execution(query, allFiles, limit, deadlineMs);
+        // 1. Open one stream per worker; each gets its first chunks right away
+        execution.start(workers);
+        // 2. Wait until every chunk is done, every stream failed, or the deadline passed
+        return execution.await();
+    }
+
+    /**
+     * A slice of the corpus, identified within one query by its position.
+     */
+    private static final class Chunk {
+        final int id;
+        final List<String> files;
+        int copies; // Streams this chunk was sent to (more than one once it is duplicated as a backup)
+
+        Chunk(int id, List<String> files) {
+            this.id = id;
+            this.files = files;
+        }
+    }
+
+    /**
+     * State of one query. All fields are guarded by the execution's monitor.
+     */
+    private class Execution {
+        private final String query;
+        private final int totalDocuments;
+        private final int limit;
+        private final long deadlineNanos;
+        private final ScoreAggregator aggregator = new ScoreAggregator();
+        private final Deque<Chunk> pending = new ArrayDeque<>();
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final Set<Integer> done = new HashSet<>();
+        private final List<WorkerStream> streams = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+        private boolean finished;
+
+        Execution(String query, List<String> allFiles, int limit, long deadlineMs) {
+            this.query = query;
+            this.totalDocuments = allFiles.size();
+            this.limit = limit;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+            for (int from = 0; from < allFiles.size(); from += CHUNK_FILES) {
+                Chunk chunk = new Chunk(chunks.size(), allFiles.subList(from, Math.min(from + CHUNK_FILES, allFiles.size())));
+                chunks.add(chunk);
+                pending.add(chunk);
+            }
+        }
+
+        synchronized void start(List<String> workers) {
+            for (String worker : workers) {
+                WorkerStream stream = new WorkerStream(worker);
+                streams.add(stream);
+                TFServiceGrpc.newStub(channelPool.getChannel(worker))
+                        .withDeadlineAfter(Math.max(1, remainingMs()), TimeUnit.MILLISECONDS)
+                        .processChunks(stream);
+                fill(stream);
+            }
+        }
+
+        /**
+         * Tops up a stream to {@link #PREFETCH} outstanding chunks: from the queue while it lasts, then with backup
+         * copies of chunks that are still running elsewhere. An idle stream stays open until the query finishes,
+         * in case a failed worker's chunks come back to the queue.
+         */
+        private void fill(WorkerStream stream) {
+            if (stream.closed || finished) {
+                return;
+            }
+            while (stream.outstanding.size() < PREFETCH) {
+                Chunk chunk = pending.poll();
+                if (chunk == null && stream.outstanding.isEmpty()) {
+                    chunk = findStraggler(stream);
+                }
+                if (chunk == null) {
+                    break;
+                }
+                chunk.copies++;
+                stream.outstanding.add(chunk);
+                stream.requests.onNext(WorkChunk.newBuilder()
+                        .setSearchQuery(query)
+                        .setChunkId(chunk.id)
+                        .addAllFilePaths(chunk.files)
+                        .setCompact(SearchCoordinator.COMPACT_WIRE)
+                        .build());
+            }
+        }
+
+        /**
+         * Returns the oldest chunk outstanding on another stream that has no backup copy yet, or null.
+         */
+        private Chunk findStraggler(WorkerStream idle) {
+            Chunk oldest = null;
+            for (WorkerStream other : streams) {
+                if (other == idle || other.closed) {
+                    continue;
+                }
+                for (Chunk chunk : other.outstanding) {
+                    if (chunk.copies == 1 && !done.contains(chunk.id) && (oldest == null || chunk.id < oldest.id)) {
+                        oldest = chunk;
+                    }
+                }
+            }
+            return oldest;
+        }
+
+        private synchronized void onResult(WorkerStream stream, ChunkResult result) {
+            Chunk chunk = chunks.get(result.getChunkId());
+            stream.outstanding.remove(chunk);
+            // The first copy of a chunk to finish wins; a backup that finishes later is dropped
+            if (!finished && done.add(chunk.id)) {
+                // Files the worker had not indexed yet were not scored, and do not count towards coverage
+                int scored = chunk.files.size() - result.getDocumentsMissing();
+                if (result.hasCompactScores()) {
+                    aggregator.add(result.getCompactScores(), scored, Map.of());
+                } else {
+                    aggregator.add(result.getDocumentScoresList(), scored);
+                }
+            }
+            if (done.size() == chunks.size()) {
+                finish();
+            } else {
+                fill(stream);
+            }
+        }
+
+        private synchronized void onStreamFailed(WorkerStream stream, Status status) {
+            stream.closed = true;
+            if (finished) {
+                return;
+            }
+            System.err.println("Worker " + stream.worker + " failed: " + status);
+            if (!failed.contains(stream.worker)) {
+                failed.add(stream.worker);
+            }
+            // Put the chunks it was holding back at the front of the queue, then let the others pick them up
+            for (Chunk chunk : stream.outstanding) {
+                chunk.copies--;
+                if (!done.contains(chunk.id) && chunk.copies == 0) {
+                    pending.addFirst(chunk);
+                }
+            }
+            stream.outstanding.clear();
+            for (WorkerStream other : streams) {
+                fill(other);
+            }
+            notifyAll();
+        }
+
+        private synchronized void onStreamCompleted(WorkerStream stream) {
+            stream.closed = true;
+            notifyAll();
+        }
+
+        /**
+         * Stops the query: half-closes idle streams, cancels those still holding (backup) chunks
+         * and wakes up {@link #await()}.
+         */
+        private void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            for (WorkerStream stream : streams) {
+                if (!stream.closed) {
+                    stream.close();
+                }
+            }
+            notifyAll();
+        }
+
+        private boolean hasLiveStreams() {
+            for (WorkerStream stream : streams) {
+                if (!stream.closed) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized SearchResult await() throws InterruptedException {
+            while (!finished && hasLiveStreams() && remainingMs() > 0) {
+                wait(Math.max(1, remainingMs()));
+            }
+            List<Map.Entry<String, Double>> ranking = aggregator.rank(totalDocuments, limit);
+
+            // Workers still holding unfinished chunks at the deadline timed out
+            List<String> timedOut = new ArrayList<>();
+            for (WorkerStream stream : streams) {
+                for (Chunk chunk : stream.outstanding) {
+                    if (!done.contains(chunk.id) && !timedOut.contains(stream.worker)) {
+                        timedOut.add(stream.worker);
+                    }
+                }
+            }
+            boolean complete = done.size() == chunks.size();
+            finish();
+            if (!complete) {
+                System.err.println("Partial results for '" + query + "': " + aggregator.getDocumentsScored() + "/"
+                        + totalDocuments + " documents scored, timed out: " + timedOut + ", failed: " + failed);
+            }
+            // A failed worker whose chunks were absorbed by the others did not cost any coverage
+            return new SearchResult(ranking, aggregator.getDocumentsScored(), totalDocuments, timedOut,
+                    complete ? new ArrayList<>() : new ArrayList<>(failed));
+        }
+
+        private long remainingMs() {
+            return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        }
+
+        /**
+         * The Leader's end of one worker's stream.
+         */
+        private class WorkerStream implements ClientResponseObserver<WorkChunk, ChunkResult> {
+            final String worker;
+            final Set<Chunk> outstanding = new LinkedHashSet<>();
+            ClientCallStreamObserver<WorkChunk> requests;
+            boolean closed;
+
+            WorkerStream(String worker) {
+                this.worker = worker;
+            }
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<WorkChunk> requestStream) {
+                this.requests = requestStream;
+            }
+
+            @Override
+            public void onNext(ChunkResult result) {
+                onResult(this, result);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                onStreamFailed(this, Status.fromThrowable(t));
+            }
+
+            @Override
+            public void onCompleted() {
+                onStreamCompleted(this);
+            }
+
+            /**
+             * Ends the stream: a graceful half-close if the worker has nothing left to do, a cancel otherwise.
+             */
+            void close() {
+                closed = true;
+                if (outstanding.isEmpty()) {
+                    requests.onCompleted();
+                } else {
+                    requests.cancel("Query finished", null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.distributed.search.frontend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frontend cache of document contents, bounded by total bytes, with a W-TinyLFU policy: a small LRU window takes
+ * every new document, and a document leaving the window only enters the main area (a segmented LRU) if it has been
+ * requested more often than every document it would evict. Access frequencies are estimated by a count-min sketch that
+ * is periodically halved, so popularity fades. A burst of one-off clicks therefore cannot flush the documents that
+ * are clicked over and over.
+ * Each entry remembers the file size and modification time it was read with; a lookup with different ones drops it.
+ * A document missing from the cache is only read into memory if it is likely to be admitted ({@link #startLoad});
+ * otherwise it is streamed from disk.
+ */
+class DocumentCache {
+
+    // Total bytes of cached content; 0 disables the cache
+    private static final long CAPACITY_BYTES = Long.getLong("frontend.document.cache.bytes", 64L * 1024 * 1024);
+    // Larger documents are not cached (they are streamed from disk), so one file cannot take most of the budget
+    private static final long MAX_ENTRY_BYTES = CAPACITY_BYTES / 8;
+    // Share of the capacity for the admission window, and share of the main area for the protected segment
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    // Expected average document size, used to size the frequency sketch
+    private static final long ASSUMED_DOCUMENT_BYTES = 4096;
+    // Requests a document needs (as estimated by the sketch) before a miss reads it into memory for the cache
+    private static final int MIN_LOAD_FREQUENCY = 2;
+
+    private final long windowCapacity = (long) (CAPACITY_BYTES * WINDOW_SHARE);
+    private final long mainCapacity = CAPACITY_BYTES - windowCapacity;
+    private final long protectedCapacity = (long) (mainCapacity * PROTECTED_SHARE);
+
+    // All three are kept in LRU order: the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch(CAPACITY_BYTES / ASSUMED_DOCUMENT_BYTES);
+    // Documents being read into memory for the cache, and their sizes
+    private final Map<String, Long> loading = new HashMap<>();
+    private long loadingBytes;
+
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+
+    /**
+     * True if a document of this size may be cached.
+     */
+    private boolean isCacheable(long size) {
+        return CAPACITY_BYTES > 0 && size <= MAX_ENTRY_BYTES;
+    }
+
+    /**
+     * Decides whether a miss should read the document into memory and {@link #put} it, rather than stream it.
+     * Only documents requested before are loaded (a first request would mostly be rejected by the admission policy),
+     * one request at a time per document, and all loads in progress together hold at most the largest entry size.
+     * A true result must be followed by {@link #endLoad}.
+     */
+    synchronized boolean startLoad(String name, long size) {
+        if (!isCacheable(size) || sketch.frequency(name) < MIN_LOAD_FREQUENCY || loading.containsKey(name)
+                || loadingBytes + size > MAX_ENTRY_BYTES) {
+            return false;
+        }
+        loading.put(name, size);
+        loadingBytes += size;
+        return true;
+    }
+
+    /**
+     * Ends a load started by {@link #startLoad}, whether or not it succeeded.
+     */
+    synchronized void endLoad(String name) {
+        Long size = loading.remove(name);
+        if (size != null) {
+            loadingBytes -= size;
+        }
+    }
+
+    /**
+     * Returns the cached content of a document, or null if it is not cached or the file has changed since.
+     * @param size the file's current size
+     * @param lastModified the file's current modification time
+     */
+    synchronized byte[] get(String name, long size, long lastModified) {
+        if (CAPACITY_BYTES == 0) {
+            return null;
+        }
+        sketch.increment(name);
+        Entry entry = find(name);
+        if (entry != null && (entry.size != size || entry.lastModified != lastModified)) {
+            remove(name);
+            invalidations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        touch(name, entry);
+        return entry.content;
+    }
+
+    /**
+     * Offers a document just read from disk. It enters the window; whether it stays is up to the policy.
+     * @param size the file size and modification time read before the content (so a concurrent change is
+     *             detected by the next lookup)
+     */
+    synchronized void put(String name, long size, long lastModified, byte[] content) {
+        if (!isCacheable(content.length)) {
+            return;
+        }
+        if (find(name) != null) {
+            remove(name); // Loaded concurrently by another request, or an older version
+        }
+        Entry entry = new Entry(content, size, lastModified);
+        window.put(name, entry);
+        windowBytes += entry.weight();
+        evictFromWindow();
+    }
+
+    /**
+     * Drops a document, e.g. because its file was deleted.
+     */
+    synchronized void invalidate(String name) {
+        if (find(name) != null) {
+            remove(name);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Hit ratio and memory use, one "name=value" per line.
+     */
+    synchronized String getStats() {
+        long lookups = hits + misses;
+        return "document.cache.entries=" + (window.size() + probation.size() + protectedSegment.size()) + "\n"
+                + "document.cache.resident.bytes=" + (windowBytes + probationBytes + protectedBytes) + "\n"
+                + "document.cache.capacity.bytes=" + CAPACITY_BYTES + "\n"
+                + "document.cache.hits=" + hits + "\n"
+                + "document.cache.misses=" + misses + "\n"
+                + "document.cache.hit.ratio=" + String.format("%.4f", lookups == 0 ? 0.0 : (double) hits / lookups) + "\n"
+                + "document.cache.evictions=" + evictions + "\n"
+                + "document.cache.rejections=" + rejections + "\n"
+                + "document.cache.invalidations=" + invalidations + "\n";
+    }
+
+    private Entry find(String name) {
+        Entry entry = window.get(name);
+        if (entry == null) {
+            entry = probation.get(name);
+        }
+        if (entry == null) {
+            entry = protectedSegment.get(name);
+        }
+        return entry;
+    }
+
+    /**
+     * Records a hit: moves the entry to the most recently used end of its segment, or promotes it from probation
+     * to protected (demoting protected entries back to probation if that segment is now full).
+     */
+    private void touch(String name, Entry entry) {
+        if (window.remove(name) != null) {
+            window.put(name, entry);
+        } else if (protectedSegment.remove(name) != null) {
+            protectedSegment.put(name, entry);
+        } else if (probation.remove(name) != null) {
+            probationBytes -= entry.weight();
+            protectedSegment.put(name, entry);
+            protectedBytes += entry.weight();
+            while (protectedBytes > protectedCapacity && protectedSegment.size() > 1) {
+                Map.Entry<String, Entry> demoted = pollFirst(protectedSegment);
+                protectedBytes -= demoted.getValue().weight();
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().weight();
+            }
+        }
+    }
+
+    /**
+     * Moves documents that no longer fit in the window to the main area, each one becoming a candidate that must
+     * beat the main area's eviction victims on estimated frequency.
+     */
+    private void evictFromWindow() {
+        while (windowBytes > windowCapacity && !window.isEmpty()) {
+            Map.Entry<String, Entry> candidate = pollFirst(window);
+            windowBytes -= candidate.getValue().weight();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * Admits the candidate only if it is more popular than every entry that would have to go to make room for it;
+     * either all of those victims are evicted or none is.
+     */
+    private void admit(String name, Entry candidate) {
+        long needed = probationBytes + protectedBytes + candidate.weight() - mainCapacity;
+        List<String> victims = new ArrayList<>();
+        if (needed > 0) {
+            // 1. Pick victims in eviction order: least recently used probation entries, then protected ones
+            int candidateFrequency = sketch.frequency(name);
+            int maxVictimFrequency = 0;
+            for (LinkedHashMap<String, Entry> segment : List.of(probation, protectedSegment)) {
+                for (Map.Entry<String, Entry> victim : segment.entrySet()) {
+                    if (needed <= 0) {
+                        break;
+                    }
+                    victims.add(victim.getKey());
+                    needed -= victim.getValue().weight();
+                    maxVictimFrequency = Math.max(maxVictimFrequency, sketch.frequency(victim.getKey()));
+                }
+            }
+
+            // 2. The candidate must beat all of them, otherwise the main area stays as it is
+            if (candidateFrequency <= maxVictimFrequency) {
+                rejections++;
+                return;
+            }
+            for (String victim : victims) {
+                remove(victim);
+                evictions++;
+            }
+        }
+        probation.put(name, candidate);
+        probationBytes += candidate.weight();
+    }
+
+    private void remove(String name) {
+        Entry entry;
+        if ((entry = window.remove(name)) != null) {
+            windowBytes -= entry.weight();
+        } else if ((entry = probation.remove(name)) != null) {
+            probationBytes -= entry.weight();
+        } else if ((entry = protectedSegment.remove(name)) != null) {
+            protectedBytes -= entry.weight();
+        }
+    }
+
+    private static Map.Entry<String, Entry> pollFirst(LinkedHashMap<String, Entry> segment) {
+        Iterator<Map.Entry<String, Entry>> iterator = segment.entrySet().iterator();
+        Map.Entry<String, Entry> first = iterator.next();
+        Map.Entry<String, Entry> polled = Map.entry(first.getKey(), first.getValue());
+        iterator.remove();
+        return polled;
+    }
+
+    private static final class Entry {
+        final byte[] content;
+        final long size;
+        final long lastModified;
+
+        Entry(byte[] content, long size, long lastModified) {
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        long weight() {
+            return content.length;
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequencies: four rows of small saturating counters, the estimate being the
+     * smallest of a key's four counters. After a number of increments proportional to its width every counter is
+     * halved, so old popularity decays.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows;
+        private final int indexShift;
+        private final int resetPeriod;
+        private int increments;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(256, Math.min(1 << 16, expectedEntries)) * 2 - 1);
+            this.rows = new byte[SEEDS.length][width];
+            this.indexShift = 64 - Integer.numberOfTrailingZeros(width);
+            this.resetPeriod = 10 * width;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < rows.length; i++) {
+                int index = index(hash, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                }
+            }
+            if (++increments >= resetPeriod) {
+                for (byte[] row : rows) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] >>= 1;
+                    }
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                frequency = Math.min(frequency, rows[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            return (int) (((hash + SEEDS[row]) * SEEDS[row]) >>> indexShift);
+        }
+    }
+}
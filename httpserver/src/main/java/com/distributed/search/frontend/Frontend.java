@@ -8,6 +8,7 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -15,15 +16,27 @@ import java.net.URLDecoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Frontend implements Watcher {
     private static final String ZOOKEEPER_ADDRESS = "localhost:2181";
@@ -31,20 +44,41 @@ public class Frontend implements Watcher {
     private static final String ELECTION_NAMESPACE = "/election";
     private static final String DOCUMENTS_DIRECTORY = "./documents"; // Shared folder path
 
+    private static final String UI_FILE = "index.html";
+    // Size of each of the thread pools: request handlers, relays of search responses and document transfers
+    private static final int THREADS = Integer.getInteger("frontend.threads", 64);
+    // Work each pool queues once all its threads are busy; beyond that requests are turned away
+    private static final int QUEUE_SIZE = Integer.getInteger("frontend.queue.size", 1000);
+
     private final int port;
     private ZooKeeper zooKeeper;
     private final HttpClient httpClient;
+    // The UI, served from memory and reloaded when the file changes
+    private final StaticAssetCache staticAssets = new StaticAssetCache(".", Map.of(UI_FILE, "text/html"));
+    // Contents of frequently opened documents
+    private final DocumentCache documentCache = new DocumentCache();
+    // Streams leader responses to clients; a slow client holds one of these threads, never one of the HttpClient's
+    private final ExecutorService relayExecutor = newBoundedPool("frontend-relay");
+    // Sends document bodies; a slow download holds one of these threads, never a request handler
+    private final ExecutorService documentExecutor = newBoundedPool("frontend-document");
     private final CountDownLatch connectedSignal = new CountDownLatch(1);
+    // Current leader's HTTP address (null if none), kept up to date by watches on /election
+    private volatile String leaderAddress;
 
     public Frontend(int port) {
         this.port = port;
+        // HTTP/1.1 with keep-alive: connections to the leader are pooled and reused across searches
+        // (the leader's HttpServer does not speak HTTP/2, so no upgrade attempt is made)
         this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
                 .connectTimeout(Duration.ofSeconds(5))
                 .build();
     }
 
     public void start() throws Exception {
         connectToZookeeper();
+        refreshLeaderAddress();
+        staticAssets.start();
 
         HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
 
@@ -57,10 +91,17 @@ public class Frontend implements Watcher {
         // API 3: Status Check
         server.createContext("/status", this::handleStatusRequest);
 
-        // API 4: Serve UI
+        // API 4: Document cache metrics
+        server.createContext("/stats", this::handleStatsRequest);
+
+        // API 5: Serve UI
         server.createContext("/", this::handleStaticResource);
 
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        // Handlers never wait on the leader or on a client: searches are proxied asynchronously, and response bodies
+        // are written on the relay and document pools, so slow searches or downloads cannot starve /status. Bounded,
+        // so a burst of slow clients cannot create threads without limit: once the queue is full, new requests are
+        // dropped (their connection is closed)
+        server.setExecutor(newBoundedPool("frontend-http"));
         server.start();
 
         System.out.println("Frontend Server started on port " + port);
@@ -77,6 +118,11 @@ public class Frontend implements Watcher {
         if (event.getState() == Event.KeeperState.SyncConnected) {
             connectedSignal.countDown();
         }
+        // Any change under /election (candidate joined or left, leader data changed, /election created)
+        // may mean a new leader; watches fire once, so re-reading also re-arms them
+        if (event.getType() != Event.EventType.None) {
+            refreshLeaderAddress();
+        }
     }
 
     // --- NEW METHOD: Handles requests like /document?name=file1.txt ---
@@ -108,87 +154,330 @@ public class Frontend implements Watcher {
             return;
         }
 
+        Path filePath = Paths.get(DOCUMENTS_DIRECTORY, fileName);
+        if (!Files.exists(filePath)) {
+            documentCache.invalidate(fileName);
+            sendResponse(exchange, 404, "File not found");
+            return;
+        }
+
+        String name = fileName;
+        try {
+            documentExecutor.execute(() -> sendDocument(exchange, name, filePath));
+        } catch (RejectedExecutionException e) {
+            System.err.println("Document queue full, rejecting " + fileName);
+            sendResponse(exchange, 503, "Frontend overloaded, try again later.");
+        }
+    }
+
+    /**
+     * Sends a document, or the requested byte range of it, from the cache or from disk. Runs on the document pool.
+     */
+    private void sendDocument(HttpExchange exchange, String fileName, Path filePath) {
+        boolean headersSent = false;
         try {
-            Path filePath = Paths.get(DOCUMENTS_DIRECTORY, fileName);
-            if (!Files.exists(filePath)) {
-                sendResponse(exchange, 404, "File not found");
+            // 1. Serve from the cache if it holds this version of the file, otherwise read it and offer it to the cache
+            // if it is likely to be admitted
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            byte[] content = documentCache.get(fileName, attributes.size(), lastModified);
+            if (content == null && documentCache.startLoad(fileName, attributes.size())) {
+                try {
+                    content = Files.readAllBytes(filePath);
+                    documentCache.put(fileName, attributes.size(), lastModified, content);
+                } finally {
+                    documentCache.endLoad(fileName);
+                }
+            }
+            if (content != null) {
+                long[] slice = sendDocumentHeaders(exchange, content.length);
+                headersSent = true;
+                if (slice != null) {
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(content, (int) slice[0], (int) slice[1]);
+                    }
+                }
                 return;
             }
 
-            byte[] fileContent = Files.readAllBytes(filePath);
-            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
-            sendResponse(exchange, 200, fileContent);
-
+            // 2. Not cached (too large, or not requested often enough yet): stream the file (or the requested byte
+            // range) straight from the file channel, never holding it in memory
+            try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                long[] slice = sendDocumentHeaders(exchange, file.size());
+                headersSent = true;
+                if (slice == null) {
+                    return;
+                }
+                try (OutputStream os = exchange.getResponseBody()) {
+                    WritableByteChannel target = Channels.newChannel(os);
+                    long position = slice[0];
+                    long end = slice[0] + slice[1];
+                    while (position < end) {
+                        long transferred = file.transferTo(position, end - position, target);
+                        if (transferred <= 0) {
+                            break; // File truncated while sending
+                        }
+                        position += transferred;
+                    }
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
-            sendResponse(exchange, 500, "Error reading file");
+            if (headersSent) {
+                exchange.close();
+                return;
+            }
+            try {
+                sendResponse(exchange, 500, "Error reading file");
+            } catch (IOException ignored) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Sends the status and headers for a document of the given size, honouring a Range header.
+     * @return {offset, length} of the bytes to send as the body, or null if the response is already complete
+     *         (416 for a range outside the document)
+     */
+    private long[] sendDocumentHeaders(HttpExchange exchange, long size) throws IOException {
+        long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"), size);
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        if (range != null && range.length == 0) {
+            exchange.getResponseHeaders().add("Content-Range", "bytes */" + size);
+            sendResponse(exchange, 416, "Range Not Satisfiable");
+            return null;
+        }
+
+        long start = range != null ? range[0] : 0;
+        long length = range != null ? range[1] - range[0] + 1 : size;
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+        if (range != null) {
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        // Fixed-length response; HttpServer takes -1 as "no body"
+        exchange.sendResponseHeaders(range != null ? 206 : 200, length == 0 ? -1 : length);
+        if (length == 0) {
+            exchange.close();
+            return null;
+        }
+        return new long[]{start, length};
+    }
+
+    /**
+     * Parses a single-range "Range: bytes=..." header ("start-end", "start-" or "-suffixLength").
+     * @return {first, last} byte positions (inclusive); null to send the whole file (no header, an invalid range such
+     *         as "5-2", or a form we do not support such as multiple ranges); an empty array if the range lies outside
+     *         the file
+     */
+    private static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength == 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, size - suffixLength);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = size - 1;
+                if (dash < spec.length() - 1) {
+                    long requestedLast = Long.parseLong(spec.substring(dash + 1));
+                    if (requestedLast < first) {
+                        return null; // Invalid range spec: RFC 9110 says to ignore the header
+                    }
+                    last = Math.min(last, requestedLast);
+                }
+            }
+            if (first >= size) {
+                return new long[0];
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return null; // Malformed header: ignore it, as RFC 9110 allows
         }
     }
 
     // --- Serve index.html ---
+    // From memory, pre-compressed, and with an ETag so a browser that already has the current version gets a 304
     private void handleStaticResource(HttpExchange exchange) throws IOException {
         if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
             exchange.close();
             return;
         }
-        try {
-            byte[] response = Files.readAllBytes(Paths.get("index.html"));
-            exchange.getResponseHeaders().add("Content-Type", "text/html");
-            sendResponse(exchange, 200, response);
-        } catch (IOException e) {
+        StaticAssetCache.Asset asset = staticAssets.get(UI_FILE);
+        if (asset == null) {
             sendResponse(exchange, 404, "Error loading UI: index.html not found.");
+            return;
+        }
+
+        StaticAssetCache.Representation representation =
+                asset.select(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        exchange.getResponseHeaders().add("ETag", representation.getEtag());
+        // Browsers may keep the page but must revalidate it, so an edited UI shows up on the next load
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+        if (representation.matches(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
         }
+
+        exchange.getResponseHeaders().add("Content-Type", asset.getContentType());
+        if (representation.getEncoding() != null) {
+            exchange.getResponseHeaders().add("Content-Encoding", representation.getEncoding());
+        }
+        sendResponse(exchange, 200, representation.getBody());
     }
 
     // --- Handle Search ---
+    // Proxied asynchronously: the handler thread only starts the request to the leader and returns.
+    // The leader's response is streamed back to the client when it arrives, on the relay pool.
     private void handleSearchRequest(HttpExchange exchange) throws IOException {
         if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
             exchange.close();
             return;
         }
-        try {
-            String query = new String(exchange.getRequestBody().readAllBytes()).trim();
-            String leaderAddress = getLeaderAddress();
+        String query = new String(exchange.getRequestBody().readAllBytes()).trim();
+        String leaderAddress = getLeaderAddress();
 
-            if (leaderAddress == null) {
-                sendResponse(exchange, 503, "No Leader found.");
-                return;
-            }
+        if (leaderAddress == null) {
+            sendResponse(exchange, 503, "No Leader found.");
+            return;
+        }
 
-            String leaderUrl = "http://" + leaderAddress + "/search";
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(leaderUrl))
-                    .POST(HttpRequest.BodyPublishers.ofString(query))
-                    .build();
+        // Forward URL parameters (e.g. ?k=10) unchanged
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        String leaderUrl = "http://" + leaderAddress + "/search" + (rawQuery != null ? "?" + rawQuery : "");
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(leaderUrl))
+                .POST(HttpRequest.BodyPublishers.ofString(query))
+                .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            sendResponse(exchange, response.statusCode(), response.body());
+        // The HttpClient thread only hands the response over; streaming it to a possibly slow client happens on the
+        // bounded relay pool
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenAccept(response -> {
+                    try {
+                        relayExecutor.execute(() -> relayResponse(exchange, response));
+                    } catch (RejectedExecutionException e) {
+                        rejectRelay(exchange, response);
+                    }
+                })
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    try {
+                        sendResponse(exchange, 500, "Internal Error: " + e.getMessage());
+                    } catch (IOException ignored) {
+                        exchange.close();
+                    }
+                    return null;
+                });
+    }
 
-        } catch (Exception e) {
+    /**
+     * Streams the leader's response to the client without buffering it, keeping its status and X-Search-* headers.
+     */
+    private void relayResponse(HttpExchange exchange, HttpResponse<InputStream> response) {
+        // Pass the leader's coverage metadata (X-Search-* headers) through to the client
+        response.headers().map().forEach((name, values) -> {
+            if (name.toLowerCase().startsWith("x-search-")) {
+                exchange.getResponseHeaders().put(name, values);
+            }
+        });
+        // Keep the leader's Content-Length if it sent one (-1 tells HttpServer "no body"), otherwise send chunked (0)
+        OptionalLong contentLength = response.headers().firstValueAsLong("Content-Length");
+        long responseLength = contentLength.isEmpty() ? 0 : (contentLength.getAsLong() == 0 ? -1 : contentLength.getAsLong());
+        try (InputStream body = response.body(); OutputStream os = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(response.statusCode(), responseLength);
+            body.transferTo(os);
+        } catch (IOException e) {
             e.printStackTrace();
-            sendResponse(exchange, 500, "Internal Error: " + e.getMessage());
+            exchange.close();
         }
     }
 
+    /**
+     * Answers 503 when the relay pool is saturated, releasing the leader connection.
+     */
+    private void rejectRelay(HttpExchange exchange, HttpResponse<InputStream> response) {
+        System.err.println("Relay queue full, rejecting search");
+        try {
+            response.body().close();
+            sendResponse(exchange, 503, "Frontend overloaded, try again later.");
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Fixed-size pool with a bounded queue that rejects work once the queue is full. Idle threads exit.
+     */
+    private static ThreadPoolExecutor newBoundedPool(String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                r -> new Thread(r, name + "-" + threadNumber.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     private void handleStatusRequest(HttpExchange exchange) throws IOException {
         String leader = getLeaderAddress();
         String status = "Frontend is running. Current Leader: " + (leader != null ? leader : "None");
         sendResponse(exchange, 200, status);
     }
 
+    private void handleStatsRequest(HttpExchange exchange) throws IOException {
+        sendResponse(exchange, 200, documentCache.getStats());
+    }
+
+    /**
+     * Returns the cached leader address. No ZooKeeper call: the cache is refreshed by watches.
+     */
     private String getLeaderAddress() {
+        return leaderAddress;
+    }
+
+    /**
+     * Reads the current leader from ZooKeeper and leaves watches on /election, its children and the leader's znode,
+     * so the next leader change triggers another refresh.
+     */
+    private synchronized void refreshLeaderAddress() {
         try {
-            if (zooKeeper.exists(ELECTION_NAMESPACE, false) == null) return null;
-            List<String> children = zooKeeper.getChildren(ELECTION_NAMESPACE, false);
-            if (children.isEmpty()) return null;
+            if (zooKeeper.exists(ELECTION_NAMESPACE, true) == null) {
+                leaderAddress = null; // The exists() watch fires once /election is created
+                return;
+            }
+            List<String> children = zooKeeper.getChildren(ELECTION_NAMESPACE, true);
+            if (children.isEmpty()) {
+                leaderAddress = null;
+                return;
+            }
             Collections.sort(children);
             String leaderZnode = children.get(0);
             //ip port
-            byte[] data = zooKeeper.getData(ELECTION_NAMESPACE + "/" + leaderZnode, false, null);
-            return new String(data);
+            byte[] data = zooKeeper.getData(ELECTION_NAMESPACE + "/" + leaderZnode, true, null);
+            String address = new String(data);
+            if (!address.equals(leaderAddress)) {
+                System.out.println("Current leader: " + address);
+            }
+            leaderAddress = address;
+        } catch (KeeperException.NoNodeException e) {
+            // The leader znode vanished between getChildren and getData; the children watch triggers a new refresh
         } catch (Exception e) {
             e.printStackTrace();
-            return null;
         }
     }
 
@@ -0,0 +1,255 @@
+package com.distributed.search.frontend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The Frontend's static files (the UI), held in memory. Each file is read once, together with its gzip and deflate
+ * encodings and a strong ETag per encoding, so serving it costs no disk read and no compression.
+ * A {@link WatchService} on the directory reloads a file as soon as it is created, modified or deleted.
+ */
+class StaticAssetCache {
+
+    private final Path directory;
+    private final Map<String, String> contentTypes;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    /**
+     * @param contentTypes the files to serve (names relative to the directory) and their Content-Type
+     */
+    StaticAssetCache(String directory, Map<String, String> contentTypes) {
+        this.directory = Paths.get(directory);
+        this.contentTypes = contentTypes;
+    }
+
+    /**
+     * Loads every file and starts watching the directory for changes.
+     */
+    void start() throws IOException {
+        // Watch before loading, so an edit made in between is not missed
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        for (String fileName : contentTypes.keySet()) {
+            reload(fileName);
+        }
+
+        Thread watcherThread = new Thread(() -> watchLoop(watchService), "static-asset-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Returns the file's current contents, or null if it does not exist.
+     */
+    Asset get(String fileName) {
+        return assets.get(fileName);
+    }
+
+    private void watchLoop(WatchService watchService) {
+        while (true) {
+            try {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        contentTypes.keySet().forEach(this::reload); // Events were lost, reload everything
+                    } else if (contentTypes.containsKey(event.context().toString())) {
+                        reload(event.context().toString());
+                    }
+                }
+                key.reset();
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void reload(String fileName) {
+        try {
+            byte[] content = Files.readAllBytes(directory.resolve(fileName));
+            assets.put(fileName, new Asset(contentTypes.get(fileName), content));
+            System.out.println("Loaded static asset " + fileName + " (" + content.length + " bytes)");
+        } catch (NoSuchFileException e) {
+            assets.remove(fileName);
+        } catch (IOException e) {
+            // Keep serving the previous version; the next event retries
+            System.err.println("Failed to load static asset " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One immutable version of a file: its bytes in every encoding we serve, each with its own strong ETag
+     * (a strong ETag identifies exact bytes, so the compressed representations need different ones).
+     */
+    static final class Asset {
+        private final String contentType;
+        private final Representation identity;
+        private final Representation gzip;
+        private final Representation deflate;
+
+        private Asset(String contentType, byte[] content) throws IOException {
+            this.contentType = contentType;
+            String hash = sha256(content);
+            this.identity = new Representation(null, content, "\"" + hash + "\"");
+            // A compressed form is only kept if it is actually smaller
+            this.gzip = smallerOrNull(new Representation("gzip", gzip(content), "\"" + hash + "-gzip\""));
+            this.deflate = smallerOrNull(new Representation("deflate", deflate(content), "\"" + hash + "-deflate\""));
+        }
+
+        String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Picks the representation for the client's Accept-Encoding header: gzip, then deflate, then identity.
+         */
+        Representation select(String acceptEncoding) {
+            if (gzip != null && accepts(acceptEncoding, "gzip")) {
+                return gzip;
+            }
+            if (deflate != null && accepts(acceptEncoding, "deflate")) {
+                return deflate;
+            }
+            return identity;
+        }
+
+        private Representation smallerOrNull(Representation compressed) {
+            return compressed.body.length < identity.body.length ? compressed : null;
+        }
+    }
+
+    static final class Representation {
+        private final String encoding;
+        private final byte[] body;
+        private final String etag;
+
+        private Representation(String encoding, byte[] body, String etag) {
+            this.encoding = encoding;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        /**
+         * Content-Encoding to send, or null for the uncompressed file.
+         */
+        String getEncoding() {
+            return encoding;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * True if an If-None-Match header lists this representation (or is "*"), i.e. the client's copy is current.
+         * If-None-Match uses weak comparison, so a "W/" prefix is ignored.
+         */
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * True if the Accept-Encoding header allows the coding, by name or through "*", with a non-zero q value.
+     */
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String name = parts[0].trim().toLowerCase();
+            if (!name.equals(coding) && !name.equals("*")) {
+                continue;
+            }
+            boolean allowed = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        allowed = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        allowed = false;
+                    }
+                }
+            }
+            if (name.equals(coding)) {
+                return allowed; // An explicit entry overrides "*"
+            }
+            accepted = allowed;
+        }
+        return accepted;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * HTTP "deflate" is the zlib format (RFC 1950), which is what {@link Deflater} writes by default.
+     */
+    private static byte[] deflate(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+            deflate.write(content);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JRE provides SHA-256
+        }
+    }
+}
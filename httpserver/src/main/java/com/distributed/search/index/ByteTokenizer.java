@@ -0,0 +1,171 @@
+package com.distributed.search.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming tokenizer over raw UTF-8 bytes.
+ * Produces exactly the terms of {@code new String(bytes, UTF_8).toLowerCase().split("\\s+")} without decoding
+ * the document: tokens are lowercased through a lookup table into a reusable scratch buffer and hashed on the fly.
+ * Only tokens containing non-ASCII bytes take a slow path through {@link String#toLowerCase()}.
+ * A document can be fed in several buffers ({@link #begin()}, {@link #feed}, {@link #finish}), e.g. one mapped window
+ * at a time for files over 2 GiB; tokens spanning two buffers come out whole.
+ * Tokens longer than {@link #MAX_TOKEN_BYTES} still count towards the document length but are not emitted,
+ * so a file without whitespace cannot need a scratch buffer the size of the file.
+ * An instance is not thread safe; keep one per thread.
+ */
+public final class ByteTokenizer {
+
+    /**
+     * Receives each token. The buffer is reused for the next token, so copy anything that must be kept.
+     */
+    public interface TokenSink {
+        void onToken(byte[] buffer, int length, int hash);
+    }
+
+    public static final int MAX_TOKEN_BYTES = 1 << 20;
+
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    // ASCII lowercase table; bytes >= 0x80 are passed through and handled by the slow path
+    private static final byte[] LOWER = new byte[256];
+    // The characters matched by the regex \s: space, \t, \n, \u000B, \f, \r
+    private static final boolean[] WHITESPACE = new boolean[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+        for (char c : new char[]{' ', '\t', '\n', '\u000B', '\f', '\r'}) {
+            WHITESPACE[c] = true;
+        }
+    }
+
+    private byte[] token = new byte[64];
+
+    // State of the document being tokenized, carried from one buffer to the next
+    private boolean started;
+    private boolean leadingWhitespace;
+    private int count;
+    private int length;
+    private int hash = FNV_OFFSET;
+    private boolean ascii = true;
+    private boolean oversized;
+
+    /**
+     * Tokenizes the remaining bytes of the buffer as one whole document, without changing its position.
+     * @return the number of tokens, i.e. the document length used for TF.
+     */
+    public int tokenize(ByteBuffer input, TokenSink sink) {
+        begin();
+        feed(input, sink);
+        return finish(sink);
+    }
+
+    /**
+     * Starts a new document.
+     */
+    public void begin() {
+        started = false;
+        leadingWhitespace = false;
+        count = 0;
+        length = 0;
+        hash = FNV_OFFSET;
+        ascii = true;
+        oversized = false;
+    }
+
+    /**
+     * Tokenizes the remaining bytes of the buffer as the next part of the current document, without changing its
+     * position. A token still open at the end of the buffer is continued by the next one.
+     */
+    public void feed(ByteBuffer input, TokenSink sink) {
+        int start = input.position();
+        int end = input.limit();
+        if (start == end) {
+            return;
+        }
+        // split() quirk: leading whitespace yields a leading empty token, but only if at least one real token follows
+        if (!started) {
+            started = true;
+            leadingWhitespace = WHITESPACE[input.get(start) & 0xFF];
+        }
+
+        int length = this.length;
+        int hash = this.hash;
+        boolean ascii = this.ascii;
+        for (int i = start; i < end; i++) {
+            int b = input.get(i) & 0xFF;
+            if (WHITESPACE[b]) {
+                if (length > 0) {
+                    emit(sink, length, hash, ascii);
+                    length = 0;
+                    hash = FNV_OFFSET;
+                    ascii = true;
+                }
+                continue;
+            }
+            if (length == token.length) {
+                if (length == MAX_TOKEN_BYTES) {
+                    oversized = true; // Keep scanning for the token's end, but stop storing it
+                    continue;
+                }
+                token = Arrays.copyOf(token, length * 2);
+            }
+            byte lower = LOWER[b];
+            token[length++] = lower;
+            hash = (hash ^ (lower & 0xFF)) * FNV_PRIME;
+            ascii &= b < 0x80;
+        }
+        this.length = length;
+        this.hash = hash;
+        this.ascii = ascii;
+    }
+
+    /**
+     * Ends the current document.
+     * @return the number of tokens, i.e. the document length used for TF.
+     */
+    public int finish(TokenSink sink) {
+        // split() quirk: an empty input yields one empty token
+        if (!started) {
+            sink.onToken(token, 0, FNV_OFFSET);
+            return 1;
+        }
+        if (length > 0) {
+            emit(sink, length, hash, ascii);
+            length = 0;
+        }
+        return count;
+    }
+
+    /**
+     * FNV-1a hash of a byte range, identical to the hash passed to {@link TokenSink#onToken}.
+     */
+    public static int hash(byte[] bytes, int offset, int length) {
+        int hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private void emit(TokenSink sink, int length, int hash, boolean ascii) {
+        if (count == 0 && leadingWhitespace) {
+            sink.onToken(token, 0, FNV_OFFSET);
+            count++;
+        }
+        count = Math.addExact(count, 1); // Document lengths are ints; a longer document fails instead of wrapping
+        if (oversized) {
+            oversized = false;
+        } else if (ascii) {
+            sink.onToken(token, length, hash);
+        } else {
+            // Slow path: full Unicode lowercasing can change byte lengths, so go through String
+            byte[] lowered = new String(token, 0, length, StandardCharsets.UTF_8).toLowerCase().getBytes(StandardCharsets.UTF_8);
+            sink.onToken(lowered, lowered.length, hash(lowered, 0, lowered.length));
+        }
+    }
+}
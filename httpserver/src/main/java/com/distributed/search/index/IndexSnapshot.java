@@ -0,0 +1,181 @@
+package com.distributed.search.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, point-in-time view of the index: a list of segments (oldest first) plus the set of live documents.
+ * A document lives in exactly one segment; older copies of a re-indexed document and deleted documents
+ * are tombstoned by leaving them out of the live set.
+ * Queries take one snapshot and use it to the end, so they never see a half-applied update.
+ */
+public class IndexSnapshot {
+
+    private final long version;
+    private final List<Segment> segments;
+    private final Map<String, DocumentRef> liveDocuments;
+    private volatile List<String> sortedDocumentNames; // Computed on first use
+    private volatile Long fingerprint; // Computed on first use
+
+    IndexSnapshot(long version, List<Segment> segments, Map<String, DocumentRef> liveDocuments) {
+        this.version = version;
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+        this.liveDocuments = Collections.unmodifiableMap(new HashMap<>(liveDocuments));
+    }
+
+    static IndexSnapshot empty() {
+        return new IndexSnapshot(0, Collections.emptyList(), Collections.emptyMap());
+    }
+
+    /**
+     * Monotonically increasing version, bumped every time a new snapshot is published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Hash of the name, size and modification time of every searchable document. Unlike the version, which counts
+     * this node's refreshes, it is the same on every node that has indexed the same files, also after a restart.
+     */
+    public long getFingerprint() {
+        Long value = fingerprint;
+        if (value == null) {
+            long sum = 0;
+            for (Map.Entry<String, DocumentRef> entry : liveDocuments.entrySet()) {
+                DocumentRef document = entry.getValue();
+                long hash = 0xcbf29ce484222325L;
+                String name = entry.getKey();
+                for (int i = 0; i < name.length(); i++) {
+                    hash = (hash ^ name.charAt(i)) * 0x100000001b3L; // FNV-1a
+                }
+                hash = mix(hash ^ mix(document.getFileSize() ^ mix(document.getLastModified())));
+                sum += hash; // Order independent, so no sorting is needed
+            }
+            value = mix(sum + liveDocuments.size());
+            fingerprint = value;
+        }
+        return value;
+    }
+
+    /**
+     * Names of all documents searchable in this snapshot.
+     */
+    public Set<String> getDocumentNames() {
+        return liveDocuments.keySet();
+    }
+
+    /**
+     * Names of all documents searchable in this snapshot, sorted. Sorted once per snapshot; the list is shared and
+     * unmodifiable.
+     */
+    public List<String> getSortedDocumentNames() {
+        List<String> names = sortedDocumentNames;
+        if (names == null) {
+            List<String> sorted = new ArrayList<>(liveDocuments.keySet());
+            Collections.sort(sorted);
+            names = Collections.unmodifiableList(sorted);
+            sortedDocumentNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * Returns the live copy of a document, or null if it is not indexed (yet) or was deleted.
+     */
+    public DocumentRef getDocument(String documentName) {
+        return liveDocuments.get(documentName);
+    }
+
+    /**
+     * Resolves a term against every segment once, so it can be looked up in many documents cheaply.
+     * @return the term's ordinal in each segment (-1 where the segment does not contain it).
+     */
+    public int[] findTerm(String term) {
+        int[] ordinals = new int[segments.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = segments.get(i).findTerm(term);
+        }
+        return ordinals;
+    }
+
+    /**
+     * Returns how many times the term (resolved by {@link #findTerm}) occurs in the document.
+     */
+    public int getTermCount(int[] termOrdinals, DocumentRef document) {
+        return segments.get(document.segmentIndex).getTermCount(termOrdinals[document.segmentIndex], document.docId);
+    }
+
+    List<Segment> getSegments() {
+        return segments;
+    }
+
+    Map<String, DocumentRef> getLiveDocuments() {
+        return liveDocuments;
+    }
+
+    /**
+     * Returns, for every segment, the docIds that are still live (used when compacting).
+     */
+    BitSet[] getLiveDocIds() {
+        BitSet[] live = new BitSet[segments.size()];
+        for (int i = 0; i < live.length; i++) {
+            live[i] = new BitSet(segments.get(i).getDocumentCount());
+        }
+        for (DocumentRef document : liveDocuments.values()) {
+            live[document.segmentIndex].set(document.docId);
+        }
+        return live;
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Location of a live document: which segment holds it, and its id inside that segment.
+     */
+    public static final class DocumentRef {
+        final int segmentIndex;
+        final int docId;
+        private final int length;
+        private final long fileSize;
+        private final long lastModified;
+
+        DocumentRef(int segmentIndex, int docId, int length, long fileSize, long lastModified) {
+            this.segmentIndex = segmentIndex;
+            this.docId = docId;
+            this.length = length;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Total number of words in the document.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Size of the document file in bytes when it was indexed.
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
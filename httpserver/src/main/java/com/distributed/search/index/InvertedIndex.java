@@ -0,0 +1,469 @@
+package com.distributed.search.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inverted index over the documents directory, kept up to date by a background indexer.
+ * The index is a stack of immutable, memory-mapped {@link Segment}s stored in the index directory.
+ * A {@link WatchService} on the documents directory reports created, modified and deleted files;
+ * at most once per refresh interval the indexer writes the changed files into a new segment,
+ * tombstones deleted ones and atomically publishes a new {@link IndexSnapshot}. Queries only ever read snapshots.
+ * Segments of about the same size are merged in groups, size-tiered, so every document is rewritten a logarithmic
+ * number of times, and no segment grows past a size cap (segment offsets are ints).
+ * On restart the existing segments are re-mapped and only files that changed while the node was down are re-indexed.
+ */
+public class InvertedIndex {
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long REFRESH_INTERVAL_MS = Long.getLong("index.refresh.ms", 1000);
+    private static final int MERGE_FACTOR = 10; // Merge this many segments of about the same size into one
+    private static final long MIN_TIER_BYTES = 1 << 20; // Segments smaller than this all count as the same size
+    // No segment is written larger than this, neither by a refresh nor by a merge
+    private static final long MAX_SEGMENT_BYTES = Math.min(Integer.MAX_VALUE,
+            Long.getLong("index.segment.max.bytes", 1L << 30));
+    private static final long MAP_WINDOW_BYTES = Integer.MAX_VALUE; // Largest region one MappedByteBuffer can hold
+    private static final long MAX_RETRY_DELAY_MS = 60000; // Failed refreshes are retried with doubling delays up to this
+
+    // Tokenizer scratch space and term count table are reused per thread, so indexing a document allocates nothing
+    private static final ThreadLocal<ByteTokenizer> TOKENIZER = ThreadLocal.withInitial(ByteTokenizer::new);
+    private static final ThreadLocal<TokenCounts> TERM_COUNTS = ThreadLocal.withInitial(TokenCounts::new);
+
+    private final Path documentsDirectory;
+    private final Path indexDirectory;
+    private volatile IndexSnapshot snapshot = IndexSnapshot.empty();
+    private long nextGeneration = 1;
+
+    private WatchService watchService;
+    private Thread indexerThread;
+
+    public InvertedIndex(String documentsDirectory, String indexDirectory) {
+        this.documentsDirectory = Paths.get(documentsDirectory);
+        this.indexDirectory = Paths.get(indexDirectory);
+    }
+
+    /**
+     * Maps existing segments, indexes whatever changed since they were written and starts watching for changes.
+     * Returns once the first snapshot is published.
+     */
+    public void start() throws IOException {
+        Files.createDirectories(indexDirectory);
+        loadSegments();
+
+        // Start watching before reconciling, so no change can slip in between
+        this.watchService = FileSystems.getDefault().newWatchService();
+        documentsDirectory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        reconcile();
+
+        this.indexerThread = new Thread(this::watchLoop, "index-watcher");
+        indexerThread.setDaemon(true);
+        indexerThread.start();
+    }
+
+    /**
+     * Returns the latest published snapshot. Never blocks.
+     */
+    public IndexSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Indexer thread: collects file events and turns them into a new snapshot at most once per refresh interval.
+     * A failed refresh (e.g. a full disk or a read-only index directory) is retried with a growing delay,
+     * and never ends the thread.
+     */
+    private void watchLoop() {
+        Set<String> pendingChanges = new HashSet<>();
+        boolean rescan = false;
+        long nextRefreshAt = System.nanoTime();
+        long retryDelayMs = 0;
+
+        while (true) {
+            try {
+                long waitMs = pendingChanges.isEmpty() && !rescan
+                        ? REFRESH_INTERVAL_MS
+                        : Math.max(0, TimeUnit.NANOSECONDS.toMillis(nextRefreshAt - System.nanoTime()));
+                WatchKey key = watchService.poll(waitMs, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            rescan = true; // Events were lost, fall back to comparing the whole directory
+                            continue;
+                        }
+                        String fileName = event.context().toString();
+                        if (fileName.endsWith(".txt")) {
+                            pendingChanges.add(fileName);
+                        }
+                    }
+                    key.reset();
+                }
+
+                if ((rescan || !pendingChanges.isEmpty()) && System.nanoTime() - nextRefreshAt >= 0) {
+                    if (rescan) {
+                        reconcile();
+                    } else {
+                        refresh(pendingChanges);
+                    }
+                    pendingChanges.clear();
+                    rescan = false;
+                    retryDelayMs = 0;
+                    nextRefreshAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REFRESH_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                retryDelayMs = retryDelayMs == 0 ? REFRESH_INTERVAL_MS : Math.min(MAX_RETRY_DELAY_MS, retryDelayMs * 2);
+                // The pending changes are kept; nothing of the failed refresh was published
+                System.err.println("Index refresh failed, retrying in " + retryDelayMs + " ms: " + e);
+                nextRefreshAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMs);
+            }
+        }
+    }
+
+    /**
+     * Compares the documents directory with the current snapshot and re-indexes every difference.
+     */
+    private void reconcile() throws IOException {
+        Map<String, IndexSnapshot.DocumentRef> live = snapshot.getLiveDocuments();
+        Set<String> changed = new HashSet<>();
+
+        String[] fileNames = listDocuments();
+        Set<String> onDisk = new HashSet<>();
+        for (String fileName : fileNames) {
+            onDisk.add(fileName);
+            IndexSnapshot.DocumentRef document = live.get(fileName);
+            Path path = documentsDirectory.resolve(fileName);
+            try {
+                if (document == null
+                        || document.getFileSize() != Files.size(path)
+                        || document.getLastModified() != Files.getLastModifiedTime(path).toMillis()) {
+                    changed.add(fileName);
+                }
+            } catch (IOException e) {
+                changed.add(fileName); // Deleted or unreadable since the listing; refresh() sorts it out
+            }
+        }
+        for (String indexed : live.keySet()) {
+            if (!onDisk.contains(indexed)) {
+                changed.add(indexed); // Deleted while we were not watching
+            }
+        }
+
+        if (!changed.isEmpty() || snapshot.getVersion() == 0) {
+            refresh(changed);
+        }
+    }
+
+    /**
+     * Indexes the changed files that still exist into new segments (a new one whenever one reaches the size cap),
+     * tombstones the rest, publishes the resulting snapshot and then merges segments if needed.
+     */
+    private void refresh(Set<String> changedFiles) throws IOException {
+        IndexSnapshot current = snapshot;
+        List<Segment> segments = new ArrayList<>(current.getSegments());
+        Map<String, IndexSnapshot.DocumentRef> live = new HashMap<>(current.getLiveDocuments());
+
+        SegmentBuilder builder = new SegmentBuilder();
+        List<String> added = new ArrayList<>();
+        List<Segment> written = new ArrayList<>();
+        int indexed = 0;
+        int deleted = 0;
+        try {
+            for (String fileName : changedFiles) {
+                Path path = documentsDirectory.resolve(fileName);
+                // Tombstone the old copy first; it is replaced below if the file can be (re-)indexed
+                if (live.remove(fileName) != null && !Files.exists(path)) {
+                    deleted++;
+                }
+                if (!Files.isRegularFile(path)) {
+                    continue;
+                }
+                try {
+                    long fileSize = Files.size(path);
+                    long lastModified = Files.getLastModifiedTime(path).toMillis();
+                    TokenCounts termCounts = TERM_COUNTS.get();
+                    termCounts.clear();
+                    int length = tokenize(path, termCounts);
+                    long documentSize = SegmentBuilder.documentSize(fileName, termCounts);
+                    if (documentSize > MAX_SEGMENT_BYTES - SegmentBuilder.HEADER_SIZE) {
+                        throw new IOException("Too many distinct terms to fit in one segment");
+                    }
+                    if (builder.getSize() + documentSize > MAX_SEGMENT_BYTES) {
+                        written.add(flush(builder, added, segments, live));
+                        builder = new SegmentBuilder();
+                        added.clear();
+                    }
+                    builder.addDocument(fileName, length, fileSize, lastModified, termCounts);
+                    added.add(fileName);
+                    indexed++;
+                } catch (IOException | RuntimeException e) {
+                    // One bad document must not stop the others from being indexed; it is retried when it changes again
+                    System.err.println("Error indexing file: " + fileName + " -> " + e);
+                }
+            }
+            if (builder.getDocumentCount() > 0) {
+                written.add(flush(builder, added, segments, live));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : written) {
+                deleteQuietly(segment.getPath()); // Never published; the whole refresh is retried
+            }
+            throw e;
+        }
+
+        publish(segments, live);
+        System.out.println("Index refreshed: " + indexed + " documents indexed, " + deleted + " deleted, "
+                + snapshot.getDocumentNames().size() + " searchable in " + snapshot.getSegments().size() + " segments");
+
+        // The refresh is published whatever happens here; a failed merge is retried after the next refresh
+        try {
+            mergeSegments();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Segment merge failed: " + e);
+        }
+    }
+
+    /**
+     * Writes the builder's documents into a new segment and points their live entries at it.
+     */
+    private Segment flush(SegmentBuilder builder, List<String> added, List<Segment> segments,
+                          Map<String, IndexSnapshot.DocumentRef> live) throws IOException {
+        Segment segment = writeSegment(builder);
+        int segmentIndex = segments.size();
+        segments.add(segment);
+        for (String fileName : added) {
+            int docId = segment.getDocumentId(fileName);
+            live.put(fileName, new IndexSnapshot.DocumentRef(segmentIndex, docId, segment.getDocumentLength(docId),
+                    segment.getDocumentFileSize(docId), segment.getDocumentLastModified(docId)));
+        }
+        return segment;
+    }
+
+    /**
+     * Merges segments until no tier holds {@link #MERGE_FACTOR} of them.
+     */
+    private void mergeSegments() throws IOException {
+        List<Integer> selected;
+        while (!(selected = selectMerge(snapshot)).isEmpty()) {
+            merge(selected);
+        }
+    }
+
+    /**
+     * Size-tiered merge policy. Segments are grouped into tiers by their live size (file size times the share of
+     * documents still live): tier 0 below {@link #MIN_TIER_BYTES}, and each tier after that {@link #MERGE_FACTOR}
+     * times larger. The first tier holding {@link #MERGE_FACTOR} segments has its smallest ones merged, as many as
+     * fit under the size cap. Otherwise a segment with more than half of its documents tombstoned is rewritten
+     * alone, to reclaim the space.
+     * @return the indexes of the segments to merge, empty if nothing needs merging
+     */
+    private static List<Integer> selectMerge(IndexSnapshot current) {
+        List<Segment> segments = current.getSegments();
+        BitSet[] liveDocIds = current.getLiveDocIds();
+        Map<Integer, List<Integer>> tiers = new TreeMap<>();
+        long[] liveBytes = new long[segments.size()];
+        int mostTombstoned = -1;
+        double lowestLiveShare = 0.5;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            double liveShare = (double) liveDocIds[i].cardinality() / Math.max(1, segment.getDocumentCount());
+            liveBytes[i] = (long) (segment.getSize() * liveShare);
+            int tier = liveBytes[i] < MIN_TIER_BYTES ? 0
+                    : 1 + (int) (Math.log((double) liveBytes[i] / MIN_TIER_BYTES) / Math.log(MERGE_FACTOR));
+            tiers.computeIfAbsent(tier, t -> new ArrayList<>()).add(i);
+            if (liveShare < lowestLiveShare) {
+                lowestLiveShare = liveShare;
+                mostTombstoned = i;
+            }
+        }
+
+        for (List<Integer> tier : tiers.values()) {
+            if (tier.size() < MERGE_FACTOR) {
+                continue;
+            }
+            tier.sort((a, b) -> Long.compare(liveBytes[a], liveBytes[b]));
+            // A merged segment is never larger than its inputs' files together
+            List<Integer> selected = new ArrayList<>();
+            long size = SegmentBuilder.HEADER_SIZE;
+            for (int i : tier) {
+                if (selected.size() == MERGE_FACTOR || size + segments.get(i).getSize() > MAX_SEGMENT_BYTES) {
+                    break;
+                }
+                selected.add(i);
+                size += segments.get(i).getSize();
+            }
+            if (selected.size() > 1) {
+                return selected;
+            }
+        }
+        return mostTombstoned >= 0 ? List.of(mostTombstoned) : List.of();
+    }
+
+    /**
+     * Merges the live documents of the given segments into one new segment; the old files are deleted on publish.
+     */
+    private void merge(List<Integer> selected) throws IOException {
+        IndexSnapshot current = snapshot;
+        BitSet[] liveDocIds = current.getLiveDocIds();
+        SegmentBuilder builder = new SegmentBuilder();
+        for (int i : selected) {
+            builder.addSegment(current.getSegments().get(i), liveDocIds[i]);
+        }
+
+        List<Segment> segments = new ArrayList<>(current.getSegments());
+        if (builder.getDocumentCount() == 0) {
+            publish(segments, current.getLiveDocuments()); // Only superseded copies, e.g. left over from a restart
+            return;
+        }
+        // The merged segment has the newest generation, which is safe: it only holds live copies
+        Segment merged = writeSegment(builder);
+        int mergedIndex = segments.size();
+        segments.add(merged);
+        Map<String, IndexSnapshot.DocumentRef> live = new HashMap<>(current.getLiveDocuments());
+        for (int docId = 0; docId < merged.getDocumentCount(); docId++) {
+            live.put(merged.getDocumentName(docId), new IndexSnapshot.DocumentRef(mergedIndex, docId,
+                    merged.getDocumentLength(docId), merged.getDocumentFileSize(docId), merged.getDocumentLastModified(docId)));
+        }
+        // Queries still holding the old snapshot keep their mappings, which outlive the deleted files
+        publish(segments, live);
+        System.out.println("Merged " + selected.size() + " segment(s) into " + merged.getPath().getFileName()
+                + " (" + merged.getSize() + " bytes)");
+    }
+
+    /**
+     * Drops segments without live documents and atomically swaps in the new snapshot.
+     */
+    private void publish(List<Segment> segments, Map<String, IndexSnapshot.DocumentRef> live) {
+        boolean[] used = new boolean[segments.size()];
+        for (IndexSnapshot.DocumentRef document : live.values()) {
+            used[document.segmentIndex] = true;
+        }
+
+        List<Segment> kept = new ArrayList<>();
+        int[] newIndex = new int[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            if (used[i]) {
+                newIndex[i] = kept.size();
+                kept.add(segments.get(i));
+            } else if (snapshot.getSegments().contains(segments.get(i))) {
+                deleteQuietly(segments.get(i).getPath()); // Every document in it was tombstoned
+            }
+        }
+
+        Map<String, IndexSnapshot.DocumentRef> remapped = new HashMap<>();
+        for (Map.Entry<String, IndexSnapshot.DocumentRef> entry : live.entrySet()) {
+            IndexSnapshot.DocumentRef document = entry.getValue();
+            remapped.put(entry.getKey(), new IndexSnapshot.DocumentRef(newIndex[document.segmentIndex], document.docId,
+                    document.getLength(), document.getFileSize(), document.getLastModified()));
+        }
+        this.snapshot = new IndexSnapshot(snapshot.getVersion() + 1, kept, remapped);
+    }
+
+    /**
+     * Maps every segment left in the index directory. Later segments override earlier copies of the same document.
+     */
+    private void loadSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null); // Generation numbers are zero padded, so name order is generation order
+
+        List<Segment> segments = new ArrayList<>();
+        Map<String, IndexSnapshot.DocumentRef> live = new HashMap<>();
+        for (Path path : paths) {
+            try {
+                Segment segment = Segment.open(path);
+                int segmentIndex = segments.size();
+                segments.add(segment);
+                for (int docId = 0; docId < segment.getDocumentCount(); docId++) {
+                    live.put(segment.getDocumentName(docId), new IndexSnapshot.DocumentRef(segmentIndex, docId,
+                            segment.getDocumentLength(docId), segment.getDocumentFileSize(docId), segment.getDocumentLastModified(docId)));
+                }
+                nextGeneration = Math.max(nextGeneration, parseGeneration(path) + 1);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Discarding unreadable segment " + path + " -> " + e.getMessage());
+            }
+        }
+        if (!segments.isEmpty()) {
+            this.snapshot = new IndexSnapshot(0, segments, live);
+            System.out.println("Mapped " + segments.size() + " existing index segments with " + live.size() + " documents");
+        }
+    }
+
+    private Segment writeSegment(SegmentBuilder builder) throws IOException {
+        Path path = indexDirectory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, nextGeneration++, SEGMENT_SUFFIX));
+        builder.writeTo(path);
+        return Segment.open(path);
+    }
+
+    private String[] listDocuments() {
+        File dir = documentsDirectory.toFile();
+        String[] fileNames = dir.list((d, name) -> name.endsWith(".txt"));
+        return fileNames != null ? fileNames : new String[0];
+    }
+
+    private static long parseGeneration(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Still mapped on platforms that lock mapped files; it is superseded and cleaned up on a later compaction
+        }
+    }
+
+    /**
+     * Streams the file's bytes through the tokenizer without decoding it into a String.
+     * Produces the same terms as the original worker logic: lowercase, then split on whitespace.
+     * The file is mapped one window at a time, as a single mapping cannot exceed 2 GiB.
+     * @return the number of words in the document.
+     */
+    private static int tokenize(Path path, TokenCounts termCounts) throws IOException {
+        return tokenize(path, termCounts, MAP_WINDOW_BYTES);
+    }
+
+    /**
+     * Same, mapping at most {@code windowBytes} at a time.
+     */
+    static int tokenize(Path path, TokenCounts termCounts, long windowBytes) throws IOException {
+        ByteTokenizer tokenizer = TOKENIZER.get();
+        tokenizer.begin();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += windowBytes) {
+                tokenizer.feed(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(windowBytes, size - position)), termCounts);
+            }
+        }
+        return tokenizer.finish(termCounts);
+    }
+}
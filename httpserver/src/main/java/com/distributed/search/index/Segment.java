@@ -0,0 +1,220 @@
+package com.distributed.search.index;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of a segment file written by {@link SegmentBuilder}.
+ * The file is mapped with {@link FileChannel#map}, so term lookups are served straight from the page cache
+ * and the heap only holds the document name -> id table.
+ */
+public class Segment {
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int documentCount;
+    private final int termCount;
+    private final int docTableOffset;
+    private final int docNamesOffset;
+    private final int termIndexOffset;
+    private final int termDataOffset;
+    private final int postingsOffset;
+    private final Map<String, Integer> documentIds = new HashMap<>();
+
+    private Segment(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < SegmentBuilder.HEADER_SIZE || buffer.getInt(0) != SegmentBuilder.MAGIC) {
+            throw new IOException("Not a segment file: " + path);
+        }
+        if (buffer.getInt(4) != SegmentBuilder.VERSION) {
+            throw new IOException("Unsupported segment version " + buffer.getInt(4) + " in " + path);
+        }
+        this.documentCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        this.docTableOffset = (int) buffer.getLong(16);
+        this.docNamesOffset = (int) buffer.getLong(24);
+        this.termIndexOffset = (int) buffer.getLong(32);
+        this.termDataOffset = (int) buffer.getLong(40);
+        this.postingsOffset = (int) buffer.getLong(48);
+
+        for (int docId = 0; docId < documentCount; docId++) {
+            documentIds.put(getDocumentName(docId), docId);
+        }
+    }
+
+    /**
+     * Maps an existing segment file into memory.
+     */
+    public static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Segment(path, buffer);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Size of the segment file in bytes.
+     */
+    public long getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns the segment-local id of a document, or -1 if the segment does not contain it.
+     */
+    public int getDocumentId(String documentName) {
+        return documentIds.getOrDefault(documentName, -1);
+    }
+
+    public String getDocumentName(int docId) {
+        int entry = docTableOffset + docId * SegmentBuilder.DOC_ENTRY_SIZE;
+        int nameOffset = buffer.getInt(entry + 20);
+        int nameLength = buffer.getInt(entry + 24);
+        return readString(docNamesOffset + nameOffset, nameLength);
+    }
+
+    public int getDocumentLength(int docId) {
+        return buffer.getInt(docTableOffset + docId * SegmentBuilder.DOC_ENTRY_SIZE);
+    }
+
+    public long getDocumentFileSize(int docId) {
+        return buffer.getLong(docTableOffset + docId * SegmentBuilder.DOC_ENTRY_SIZE + 4);
+    }
+
+    public long getDocumentLastModified(int docId) {
+        return buffer.getLong(docTableOffset + docId * SegmentBuilder.DOC_ENTRY_SIZE + 12);
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public int getTermLength(int termOrdinal) {
+        return buffer.getInt(termIndexOffset + termOrdinal * SegmentBuilder.TERM_ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Copies the UTF-8 bytes of a term into the start of the destination array.
+     */
+    public void copyTerm(int termOrdinal, byte[] destination) {
+        int entry = termIndexOffset + termOrdinal * SegmentBuilder.TERM_ENTRY_SIZE;
+        buffer.get(termDataOffset + buffer.getInt(entry), destination, 0, buffer.getInt(entry + 4));
+    }
+
+    /**
+     * Returns the number of documents in this segment that contain the term.
+     */
+    public int getPostingsCount(int termOrdinal) {
+        return buffer.getInt(termIndexOffset + termOrdinal * SegmentBuilder.TERM_ENTRY_SIZE + 12);
+    }
+
+    /**
+     * Returns the docId of the i-th posting of a term.
+     */
+    public int getPostingDocId(int termOrdinal, int i) {
+        return buffer.getInt(postingPosition(termOrdinal, i));
+    }
+
+    /**
+     * Returns the term count of the i-th posting of a term.
+     */
+    public int getPostingTermCount(int termOrdinal, int i) {
+        return buffer.getInt(postingPosition(termOrdinal, i) + 4);
+    }
+
+    /**
+     * Binary searches the term dictionary.
+     * @return the term's ordinal in the dictionary, or -1 if no document in this segment contains it.
+     */
+    public int findTerm(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTerm(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns how often the term (by ordinal from {@link #findTerm}) occurs in the document, or 0.
+     * Postings are sorted by docId, so this is a binary search over the term's postings.
+     */
+    public int getTermCount(int termOrdinal, int docId) {
+        if (termOrdinal < 0) {
+            return 0;
+        }
+        int entry = termIndexOffset + termOrdinal * SegmentBuilder.TERM_ENTRY_SIZE;
+        int start = buffer.getInt(entry + 8);
+        int count = buffer.getInt(entry + 12);
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int posting = postingsOffset + (start + mid) * SegmentBuilder.POSTING_SIZE;
+            int postingDocId = buffer.getInt(posting);
+            if (postingDocId < docId) {
+                low = mid + 1;
+            } else if (postingDocId > docId) {
+                high = mid - 1;
+            } else {
+                return buffer.getInt(posting + 4);
+            }
+        }
+        return 0;
+    }
+
+    private int postingPosition(int termOrdinal, int i) {
+        int start = buffer.getInt(termIndexOffset + termOrdinal * SegmentBuilder.TERM_ENTRY_SIZE + 8);
+        return postingsOffset + (start + i) * SegmentBuilder.POSTING_SIZE;
+    }
+
+    /**
+     * Compares the dictionary term at the given ordinal with the key, byte by byte (unsigned).
+     */
+    private int compareTerm(int termOrdinal, byte[] key) {
+        int entry = termIndexOffset + termOrdinal * SegmentBuilder.TERM_ENTRY_SIZE;
+        int offset = termDataOffset + buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,265 @@
+package com.distributed.search.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Accumulates tokenized documents in memory and writes them out as one immutable {@link Segment} file.
+ *
+ * File layout (all integers big-endian, matching {@link java.nio.ByteBuffer}'s default order):
+ * <pre>
+ * header     : magic, version, docCount, termCount, then the absolute offsets of the five sections
+ * doc table  : docCount x [length:int, fileSize:long, lastModified:long, nameOffset:int, nameLength:int]
+ * doc names  : UTF-8 bytes of all document names, back to back
+ * term index : termCount x [termOffset:int, termLength:int, postingsStart:int, postingsCount:int], sorted by term bytes
+ * term data  : UTF-8 bytes of all terms, back to back
+ * postings   : [docId:int, count:int] pairs, grouped by term and sorted by docId
+ * </pre>
+ */
+public class SegmentBuilder {
+
+    static final int MAGIC = 0x54465347; // "TFSG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 * 4 + 5 * 8;
+    static final int DOC_ENTRY_SIZE = 4 + 8 + 8 + 4 + 4;
+    static final int TERM_ENTRY_SIZE = 4 * 4;
+    static final int POSTING_SIZE = 4 + 4;
+
+    private final List<DocumentEntry> documents = new ArrayList<>();
+
+    // Shared term dictionary: term bytes -> dense term id, plus per-term-id postings
+    private final TokenCounts dictionary = new TokenCounts();
+    private Postings[] postings = new Postings[256];
+
+    // Running totals of the sections' sizes, so the file size is known before writing
+    private long namesSize;
+    private long termDataSize;
+    private long postingCount;
+
+    /**
+     * Adds one document. Documents get consecutive ids in the order they are added.
+     * @param termCounts the document's term counts; only read, so the caller may clear and reuse it afterwards
+     */
+    public void addDocument(String name, int length, long fileSize, long lastModified, TokenCounts termCounts) {
+        int docId = documents.size();
+        addEntry(new DocumentEntry(name, length, fileSize, lastModified));
+
+        byte[] arena = termCounts.getArena();
+        for (int id = 0; id < termCounts.size(); id++) {
+            int termId = addTerm(arena, termCounts.getOffset(id), termCounts.getLength(id), termCounts.getHash(id));
+            postingsFor(termId).add(docId, termCounts.getCount(id));
+        }
+        postingCount += termCounts.size();
+    }
+
+    /**
+     * Upper bound of what adding the document grows a segment file by (exact if none of its terms is in it yet).
+     */
+    static long documentSize(String name, TokenCounts termCounts) {
+        long size = DOC_ENTRY_SIZE + name.getBytes(StandardCharsets.UTF_8).length;
+        for (int id = 0; id < termCounts.size(); id++) {
+            size += TERM_ENTRY_SIZE + termCounts.getLength(id) + POSTING_SIZE;
+        }
+        return size;
+    }
+
+    /**
+     * Copies the live documents of an existing segment into this builder (used to compact segments).
+     * Documents keep their relative order, so postings stay sorted by docId.
+     * @param live the segment-local ids of the documents to keep
+     */
+    public void addSegment(Segment segment, BitSet live) {
+        int[] newIds = new int[segment.getDocumentCount()];
+        Arrays.fill(newIds, -1);
+        for (int docId = live.nextSetBit(0); docId >= 0; docId = live.nextSetBit(docId + 1)) {
+            newIds[docId] = documents.size();
+            addEntry(new DocumentEntry(segment.getDocumentName(docId), segment.getDocumentLength(docId),
+                    segment.getDocumentFileSize(docId), segment.getDocumentLastModified(docId)));
+        }
+
+        byte[] term = new byte[64];
+        for (int termOrdinal = 0; termOrdinal < segment.getTermCount(); termOrdinal++) {
+            Postings termPostings = null;
+            for (int i = 0; i < segment.getPostingsCount(termOrdinal); i++) {
+                int newId = newIds[segment.getPostingDocId(termOrdinal, i)];
+                if (newId < 0) {
+                    continue; // Tombstoned or superseded document
+                }
+                if (termPostings == null) {
+                    int length = segment.getTermLength(termOrdinal);
+                    if (length > term.length) {
+                        term = new byte[Math.max(length, term.length * 2)];
+                    }
+                    segment.copyTerm(termOrdinal, term);
+                    termPostings = postingsFor(addTerm(term, 0, length, ByteTokenizer.hash(term, 0, length)));
+                }
+                termPostings.add(newId, segment.getPostingTermCount(termOrdinal, i));
+                postingCount++;
+            }
+        }
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * Size in bytes of the file {@link #writeTo} would write now.
+     */
+    public long getSize() {
+        return HEADER_SIZE + (long) documents.size() * DOC_ENTRY_SIZE + namesSize
+                + (long) dictionary.size() * TERM_ENTRY_SIZE + termDataSize + postingCount * POSTING_SIZE;
+    }
+
+    /**
+     * Writes the segment to a temporary file and atomically moves it into place,
+     * so a reader never maps a half-written segment.
+     */
+    public void writeTo(Path target) throws IOException {
+        // Offsets inside the file are ints
+        if (getSize() > Integer.MAX_VALUE) {
+            throw new IOException("Segment too large to map: " + getSize() + " bytes");
+        }
+
+        // Sort term ids by their UTF-8 bytes so readers can binary search without decoding
+        int termCount = dictionary.size();
+        Integer[] order = new Integer[termCount];
+        for (int i = 0; i < termCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, dictionary::compareTerms);
+
+        byte[][] names = new byte[documents.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = documents.get(i).name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        // Section offsets
+        long docTableOffset = HEADER_SIZE;
+        long docNamesOffset = docTableOffset + (long) names.length * DOC_ENTRY_SIZE;
+        long termIndexOffset = docNamesOffset + namesSize;
+        long termDataOffset = termIndexOffset + (long) termCount * TERM_ENTRY_SIZE;
+        long postingsOffset = termDataOffset + termDataSize;
+
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            // 1. Header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.length);
+            out.writeInt(termCount);
+            out.writeLong(docTableOffset);
+            out.writeLong(docNamesOffset);
+            out.writeLong(termIndexOffset);
+            out.writeLong(termDataOffset);
+            out.writeLong(postingsOffset);
+
+            // 2. Doc table + names
+            int nameOffset = 0;
+            for (int i = 0; i < names.length; i++) {
+                DocumentEntry document = documents.get(i);
+                out.writeInt(document.length);
+                out.writeLong(document.fileSize);
+                out.writeLong(document.lastModified);
+                out.writeInt(nameOffset);
+                out.writeInt(names[i].length);
+                nameOffset += names[i].length;
+            }
+            for (byte[] name : names) {
+                out.write(name);
+            }
+
+            // 3. Term index + term data
+            int termOffset = 0;
+            int postingsStart = 0;
+            for (int i : order) {
+                int count = postings[i].size / 2;
+                out.writeInt(termOffset);
+                out.writeInt(dictionary.getLength(i));
+                out.writeInt(postingsStart);
+                out.writeInt(count);
+                termOffset += dictionary.getLength(i);
+                postingsStart += count;
+            }
+            for (int i : order) {
+                out.write(dictionary.getArena(), dictionary.getOffset(i), dictionary.getLength(i));
+            }
+
+            // 4. Postings
+            for (int i : order) {
+                Postings p = postings[i];
+                for (int j = 0; j < p.size; j++) {
+                    out.writeInt(p.data[j]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp); // e.g. a full disk; do not leave the partial file behind
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void addEntry(DocumentEntry document) {
+        documents.add(document);
+        namesSize += document.name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private int addTerm(byte[] buffer, int offset, int length, int hash) {
+        int termCount = dictionary.size();
+        int termId = dictionary.add(buffer, offset, length, hash);
+        if (termId == termCount) {
+            termDataSize += length; // A term the segment did not have yet
+        }
+        return termId;
+    }
+
+    private Postings postingsFor(int termId) {
+        if (termId == postings.length) {
+            postings = Arrays.copyOf(postings, postings.length * 2);
+        }
+        if (postings[termId] == null) {
+            postings[termId] = new Postings();
+        }
+        return postings[termId];
+    }
+
+    private static final class DocumentEntry {
+        final String name;
+        final int length;
+        final long fileSize;
+        final long lastModified;
+
+        DocumentEntry(String name, int length, long fileSize, long lastModified) {
+            this.name = name;
+            this.length = length;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Growable int array holding [docId, count] pairs for one term.
+     */
+    private static final class Postings {
+        int[] data = new int[4];
+        int size;
+
+        void add(int docId, int count) {
+            if (size + 2 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = docId;
+            data[size++] = count;
+        }
+    }
+}
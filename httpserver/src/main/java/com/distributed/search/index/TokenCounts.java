@@ -0,0 +1,154 @@
+package com.distributed.search.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open-addressing hash table counting terms by their raw UTF-8 bytes, fed directly by {@link ByteTokenizer}.
+ * Term bytes are copied once per distinct term into a byte arena; counts are plain ints, and every distinct term
+ * gets a dense id (0, 1, 2, ...) in insertion order.
+ * {@link #clear()} keeps all arrays, so a table reused for one document after another allocates nothing in steady state.
+ * The same class doubles as the term dictionary of a {@link SegmentBuilder}.
+ */
+public final class TokenCounts implements ByteTokenizer.TokenSink {
+
+    private int[] slots = new int[64];   // term id + 1, 0 = empty
+    private int[] hashes = new int[32];
+    private int[] offsets = new int[32];
+    private int[] lengths = new int[32];
+    private int[] counts = new int[32];
+    private byte[] arena = new byte[512];
+    private int arenaSize;
+    private int size;
+
+    @Override
+    public void onToken(byte[] buffer, int length, int hash) {
+        add(buffer, 0, length, hash);
+    }
+
+    /**
+     * Counts one occurrence of the term.
+     * @return the term's id.
+     */
+    public int add(byte[] buffer, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                return insert(slot, buffer, offset, length, hash);
+            }
+            if (hashes[id] == hash && lengths[id] == length
+                    && Arrays.equals(arena, offsets[id], offsets[id] + length, buffer, offset, offset + length)) {
+                counts[id]++;
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Empties the table but keeps its capacity for the next document.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(slots, 0);
+            size = 0;
+            arenaSize = 0;
+        }
+    }
+
+    /**
+     * Number of distinct terms.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCount(int id) {
+        return counts[id];
+    }
+
+    public int getHash(int id) {
+        return hashes[id];
+    }
+
+    public int getLength(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * Compares the bytes of two terms, unsigned, as the segment term dictionary is ordered.
+     */
+    public int compareTerms(int id1, int id2) {
+        return Arrays.compareUnsigned(arena, offsets[id1], offsets[id1] + lengths[id1],
+                arena, offsets[id2], offsets[id2] + lengths[id2]);
+    }
+
+    /**
+     * Decodes the table into a term -> count map (one String per distinct term). For tests only.
+     */
+    Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>(size * 2);
+        for (int id = 0; id < size; id++) {
+            map.put(new String(arena, offsets[id], lengths[id], StandardCharsets.UTF_8), counts[id]);
+        }
+        return map;
+    }
+
+    byte[] getArena() {
+        return arena;
+    }
+
+    int getOffset(int id) {
+        return offsets[id];
+    }
+
+    private int insert(int slot, byte[] buffer, int offset, int length, int hash) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        System.arraycopy(buffer, offset, arena, arenaSize, length);
+        int id = size++;
+        hashes[id] = hash;
+        offsets[id] = arenaSize;
+        lengths[id] = length;
+        counts[id] = 1;
+        arenaSize += length;
+        slots[slot] = id + 1;
+
+        // Keep the load factor at or below 1/2
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Spreads FNV hash bits so the low bits used for slot selection are well distributed.
+     */
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,90 +1,517 @@
 package com.distributed.search.service;
 
+import com.distributed.search.index.IndexSnapshot;
+import com.distributed.search.index.InvertedIndex;
+import com.distributed.search.model.ChunkResult;
+import com.distributed.search.model.CompactScores;
 import com.distributed.search.model.DocumentScore;
+import com.distributed.search.model.TFBatchRequest;
+import com.distributed.search.model.TFBatchResponse;
 import com.distributed.search.model.TFRequest;
 import com.distributed.search.model.TFResponse;
 import com.distributed.search.model.TFServiceGrpc;
+import com.distributed.search.model.WorkChunk;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Service implementation for the Worker node.
  * Calculates Term Frequency (TF) for assigned documents.
+ * Term counts come from the latest index snapshot, so a query never reads or tokenizes documents itself.
+ * Large file lists are split into slices that are scored in parallel on a bounded pool.
+ * Documents arrive as one list per request, answered at once ({@code CalculateTF}) or in batches
+ * ({@code CalculateTFStream}), as one list shared by several queries ({@code CalculateTFBatch}), or as a stream
+ * of chunks the Leader hands out on demand ({@code ProcessChunks}, work-stealing mode).
  */
 public class TFServiceImpl extends TFServiceGrpc.TFServiceImplBase {
 
-    // The shared directory containing the document files
-    private static final String DOCUMENTS_DIRECTORY = "./documents";
+    // Worker CPU knob: how many threads a single worker may use for scoring (shared by all concurrent requests)
+    private static final int WORKER_THREADS = Integer.getInteger("worker.threads", Runtime.getRuntime().availableProcessors());
+    // Requests with fewer files than this are scored inline on the gRPC thread; splitting them costs more than it saves
+    private static final int MIN_FILES_PER_SLICE = 256;
+    // Weight of the newest request in the throughput moving average
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+    // Relative TF difference below which top-K trimming treats two documents as possibly tied on the Leader
+    private static final double TIE_MARGIN = 1e-12;
+
+    private final InvertedIndex index;
+    private final ForkJoinPool scoringPool = new ForkJoinPool(WORKER_THREADS);
+    private double throughput; // Moving average of documents scored per millisecond
+
+    public TFServiceImpl(InvertedIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Number of threads this worker scores with, advertised to the Leader as its core count.
+     */
+    public int getThreads() {
+        return WORKER_THREADS;
+    }
+
+    /**
+     * Measured scoring throughput in documents per millisecond (0 until the first request).
+     * Scoring a document is a few postings lookups whatever its length, so this measures the worker, not its shard.
+     * The Leader uses it to give faster workers a larger share of the corpus.
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
 
     @Override
     public void calculateTF(TFRequest request, StreamObserver<TFResponse> responseObserver) {
+        List<DocumentScore> scores;
+        LongAdder documentsMissing = new LongAdder();
+        try {
+            scores = score(request.getSearchQuery(), request.getFilePathsList(), documentsMissing);
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Scoring failed: " + e.getMessage());
+            responseObserver.onError(Status.INTERNAL.withDescription("Scoring failed").withCause(e).asRuntimeException());
+            return;
+        }
+
+        // 4. Send the response back to the Leader
+        responseObserver.onNext(toResponse(scores, request.getFilePathsCount(), request.getCompact(), request.getTopK())
+                .setDocumentsMissing(documentsMissing.intValue())
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Batch variant: answers several queries over the same files from a single pass over the documents.
+     */
+    @Override
+    public void calculateTFBatch(TFBatchRequest request, StreamObserver<TFBatchResponse> responseObserver) {
+        List<List<DocumentScore>> scores;
+        LongAdder documentsMissing = new LongAdder();
+        try {
+            scores = score(request.getSearchQueriesList(), request.getFilePathsList(), documentsMissing);
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Scoring failed: " + e.getMessage());
+            responseObserver.onError(Status.INTERNAL.withDescription("Scoring failed").withCause(e).asRuntimeException());
+            return;
+        }
 
-        // 1. Parse the search query: Normalize to lowercase and split into individual terms
-        String searchQuery = request.getSearchQuery().toLowerCase();
-        List<String> searchTerms = Arrays.asList(searchQuery.split("\\s+"));
+        TFBatchResponse.Builder batchResponse = TFBatchResponse.newBuilder();
+        for (List<DocumentScore> queryScores : scores) {
+            batchResponse.addResponses(toResponse(queryScores, request.getFilePathsCount(), request.getCompact(), 0)
+                    .setDocumentsProcessed(request.getFilePathsCount())
+                    .setDocumentsMissing(documentsMissing.intValue()));
+        }
+        responseObserver.onNext(batchResponse.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Streaming variant: scores the files in batches, in request order, and sends each batch as soon as it is done.
+     * The next batch is only computed while the Leader keeps up (gRPC flow control), so neither side ever holds more
+     * than a few batches of scores.
+     * The Leader cancels the call when the shard times out; scoring then stops after the batch in progress, which is
+     * dropped.
+     */
+    @Override
+    public void calculateTFStream(TFRequest request, StreamObserver<TFResponse> responseObserver) {
+        ServerCallStreamObserver<TFResponse> serverObserver = (ServerCallStreamObserver<TFResponse>) responseObserver;
         List<String> filePaths = request.getFilePathsList();
+        // One batch keeps the whole scoring pool busy
+        int batchSize = WORKER_THREADS * MIN_FILES_PER_SLICE;
+        // Set when the Leader cancels. Without a cancel handler, onNext on a cancelled call throws; the handler only
+        // runs between callbacks though, while the call's context is cancelled at once, even in the middle of a batch
+        AtomicBoolean cancelled = new AtomicBoolean();
+        serverObserver.setOnCancelHandler(() -> cancelled.set(true));
+        Context.current().addListener(context -> cancelled.set(true), Runnable::run);
 
-        TFResponse.Builder responseBuilder = TFResponse.newBuilder();
+        // Runs whenever the transport can take more messages; gRPC calls it one at a time
+        serverObserver.setOnReadyHandler(new Runnable() {
+            private int next;
+            private boolean done;
 
-        // 2. Process each assigned file
-        for (String fileName : filePaths) {
-            try {
-                Path path = Paths.get(DOCUMENTS_DIRECTORY, fileName);
+            @Override
+            public void run() {
+                while (!done && serverObserver.isReady() && !cancelled.get()) {
+                    if (next == filePaths.size()) {
+                        done = true;
+                        serverObserver.onCompleted();
+                        return;
+                    }
+                    List<String> batch = filePaths.subList(next, Math.min(next + batchSize, filePaths.size()));
+                    try {
+                        LongAdder documentsMissing = new LongAdder();
+                        TFResponse response = toResponse(score(request.getSearchQuery(), batch, documentsMissing),
+                                batch.size(), request.getCompact(), request.getTopK())
+                                .setDocumentsProcessed(batch.size())
+                                .setDocumentsMissing(documentsMissing.intValue())
+                                .build();
+                        if (cancelled.get()) {
+                            return; // Cancelled while scoring
+                        }
+                        serverObserver.onNext(response);
+                    } catch (InterruptedException | ExecutionException e) {
+                        System.err.println("Scoring failed: " + e.getMessage());
+                        done = true;
+                        serverObserver.onError(Status.INTERNAL.withDescription("Scoring failed").withCause(e).asRuntimeException());
+                        return;
+                    }
+                    next += batch.size();
+                }
+            }
+        });
+    }
 
-                // Read content using Java 11's readString (efficient for text files)
-                String content = Files.readString(path).toLowerCase();
+    /**
+     * Work-stealing mode: scores chunks in the order the Leader sends them and answers each one as soon as it is done.
+     * gRPC delivers the chunks of one stream one at a time, so the responses never interleave.
+     * The Leader cancels the stream when the query finishes or times out, e.g. to drop backup copies of stolen chunks;
+     * a chunk being scored at that moment is dropped.
+     */
+    @Override
+    public StreamObserver<WorkChunk> processChunks(StreamObserver<ChunkResult> responseObserver) {
+        ServerCallStreamObserver<ChunkResult> serverObserver = (ServerCallStreamObserver<ChunkResult>) responseObserver;
+        // Set when the Leader cancels (see calculateTFStream for why both the handler and the context listener)
+        AtomicBoolean cancelled = new AtomicBoolean();
+        serverObserver.setOnCancelHandler(() -> cancelled.set(true));
+        Context.current().addListener(context -> cancelled.set(true), Runnable::run);
 
-                // Tokenize content into words
-                String[] words = content.split("\\s+");
-                double totalWords = words.length;
+        return new StreamObserver<WorkChunk>() {
+            private boolean failed;
 
-                // Avoid division by zero for empty files
-                if (totalWords == 0) {
-                    continue;
+            @Override
+            public void onNext(WorkChunk chunk) {
+                if (failed || cancelled.get()) {
+                    return;
                 }
+                try {
+                    LongAdder documentsMissing = new LongAdder();
+                    List<DocumentScore> scores = score(chunk.getSearchQuery(), chunk.getFilePathsList(), documentsMissing);
+                    ChunkResult.Builder result = ChunkResult.newBuilder()
+                            .setChunkId(chunk.getChunkId())
+                            .setDocumentsMissing(documentsMissing.intValue());
+                    if (chunk.getCompact()) {
+                        result.setCompactScores(compact(scores));
+                    } else {
+                        result.addAllDocumentScores(scores);
+                    }
+                    if (cancelled.get()) {
+                        return; // Cancelled while scoring
+                    }
+                    responseObserver.onNext(result.build());
+                } catch (InterruptedException | ExecutionException e) {
+                    System.err.println("Scoring failed: " + e.getMessage());
+                    failed = true;
+                    responseObserver.onError(Status.INTERNAL.withDescription("Scoring failed").withCause(e).asRuntimeException());
+                }
+            }
 
-                // Optimization: Create a Frequency Map of the document words.
-                // This maps "word" -> count. Example: { "distributed": 5, "system": 2 }
-                // This makes lookup O(1) instead of re-scanning the array.
-                Map<String, Long> wordCounts = Arrays.stream(words)
-                        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+            @Override
+            public void onError(Throwable t) {
+                // The Leader cancelled the stream (query finished or timed out); nothing left to answer
+            }
 
-                // 3. Calculate TF for EACH search term separately
-                // We do NOT sum them up here. We send back (Term, TF) pairs.
-                for (String term : searchTerms) {
-                    long termCount = wordCounts.getOrDefault(term, 0L);
+            @Override
+            public void onCompleted() {
+                if (!failed && !cancelled.get()) {
+                    responseObserver.onCompleted();
+                }
+            }
+        };
+    }
+
+    /**
+     * Builds the response for a list of scores, trimmed to the local top K where that cannot change the final ranking.
+     * @param documentCount number of documents the scores were computed for
+     * @param topK number of documents the Leader will keep, 0 for all
+     */
+    static TFResponse.Builder toResponse(List<DocumentScore> scores, int documentCount, boolean compact, int topK) {
+        TFResponse.Builder response = TFResponse.newBuilder();
+        if (topK > 0) {
+            scores = trimToTopK(scores, documentCount, compact, topK, response);
+        }
+        if (compact) {
+            response.setCompactScores(compact(scores));
+        } else {
+            response.addAllDocumentScores(scores);
+        }
+        return response;
+    }
+
+    /**
+     * Keeps only the scores of the documents that can be in the final top K, if every score is for the same term.
+     * The final score of such a document is its TF times one IDF that is the same for all of them, so a document of
+     * the global top K is also among the local top K by TF, with two exceptions that are kept as well:
+     * <ul>
+     *   <li>If the term is in every document its IDF is 0, all final scores are 0 and the Leader ranks by name,
+     *       so when every document here contains the term the first K by name are kept too.</li>
+     *   <li>Multiplying by the IDF can round TFs a few ulps apart to the same score, which the Leader then orders by
+     *       name, so documents whose TF is within a hair of the K-th are kept too.</li>
+     * </ul>
+     * TFs are compared as the Leader will see them (rounded to float in the compact format).
+     * With several terms the IDF weights are only known on the Leader, and the scores are returned untrimmed.
+     * When trimming, the number of matching documents is recorded in the response, for the Leader's IDF.
+     */
+    private static List<DocumentScore> trimToTopK(List<DocumentScore> scores, int documentCount, boolean compact,
+                                                  int topK, TFResponse.Builder response) {
+        if (scores.isEmpty()) {
+            return scores;
+        }
+        String term = scores.get(0).getTerm();
+        for (DocumentScore score : scores) {
+            if (!score.getTerm().equals(term)) {
+                return scores;
+            }
+        }
+
+        // 1. Group the entries per document (entries of one document are adjacent; "car car" gives two per document),
+        // summing the TFs in the order and precision the Leader will
+        List<int[]> documents = new ArrayList<>(); // {first entry, entry count}
+        List<Double> documentTf = new ArrayList<>();
+        for (int i = 0; i < scores.size(); i++) {
+            if (i == 0 || !scores.get(i).getDocumentName().equals(scores.get(i - 1).getDocumentName())) {
+                documents.add(new int[]{i, 0});
+                documentTf.add(0.0);
+            }
+            int last = documents.size() - 1;
+            double tf = compact ? (float) scores.get(i).getTfScore() : scores.get(i).getTfScore();
+            documents.get(last)[1]++;
+            documentTf.set(last, documentTf.get(last) + tf);
+        }
+        response.putTermDocumentCounts(term, documents.size());
+        if (documents.size() <= topK) {
+            return scores;
+        }
+
+        // 2. Select the top K documents by TF with a bounded min-heap (ties broken by name, as on the Leader)
+        Comparator<Integer> worstFirst = Comparator.<Integer>comparingDouble(documentTf::get)
+                .thenComparing(d -> scores.get(documents.get(d)[0]).getDocumentName(), Comparator.reverseOrder());
+        PriorityQueue<Integer> heap = new PriorityQueue<>(topK + 1, worstFirst);
+        for (int d = 0; d < documents.size(); d++) {
+            heap.add(d);
+            if (heap.size() > topK) {
+                heap.poll();
+            }
+        }
+        boolean[] keep = new boolean[documents.size()];
+        for (int d : heap) {
+            keep[d] = true;
+        }
+
+        // 3. Add the near-ties of the K-th document
+        double threshold = documentTf.get(heap.peek()) * (1 - TIE_MARGIN);
+        for (int d = 0; d < documents.size(); d++) {
+            if (documentTf.get(d) >= threshold) {
+                keep[d] = true;
+            }
+        }
+
+        // 4. Add the first K documents by name if the term may be in every document (IDF 0)
+        if (documents.size() == documentCount) {
+            PriorityQueue<Integer> lastByName = new PriorityQueue<>(topK + 1,
+                    Comparator.<Integer, String>comparing(d -> scores.get(documents.get(d)[0]).getDocumentName()).reversed());
+            for (int d = 0; d < documents.size(); d++) {
+                lastByName.add(d);
+                if (lastByName.size() > topK) {
+                    lastByName.poll();
+                }
+            }
+            for (int d : lastByName) {
+                keep[d] = true;
+            }
+        }
+
+        // 5. Return the survivors in their original order
+        List<DocumentScore> trimmed = new ArrayList<>();
+        for (int d = 0; d < documents.size(); d++) {
+            if (keep[d]) {
+                int[] entries = documents.get(d);
+                trimmed.addAll(scores.subList(entries[0], entries[0] + entries[1]));
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * Converts scores to the compact wire format: each term and document name once, then parallel id and score arrays.
+     */
+    private static CompactScores compact(List<DocumentScore> scores) {
+        CompactScores.Builder compact = CompactScores.newBuilder();
+        Map<String, Integer> termIds = new HashMap<>();
+        String lastDocument = null;
+        for (DocumentScore score : scores) {
+            // Scores of one document are always adjacent, so a new name means a new table entry
+            if (!score.getDocumentName().equals(lastDocument)) {
+                lastDocument = score.getDocumentName();
+                compact.addDocumentNames(lastDocument);
+            }
+            Integer termId = termIds.get(score.getTerm());
+            if (termId == null) {
+                termId = termIds.size();
+                termIds.put(score.getTerm(), termId);
+                compact.addTerms(score.getTerm());
+            }
+            compact.addDocumentIds(compact.getDocumentNamesCount() - 1)
+                    .addTermIds(termId)
+                    .addTfScores((float) score.getTfScore());
+        }
+        return compact.build();
+    }
+
+    /**
+     * Scores the files against one index snapshot, splitting large file lists over the scoring pool.
+     * @param documentsMissing incremented for every file that is not in the snapshot, and so was not scored
+     * @return the (document, term, TF) entries, in the order the files were given
+     */
+    private List<DocumentScore> score(String query, List<String> filePaths, LongAdder documentsMissing)
+            throws InterruptedException, ExecutionException {
+        return score(List.of(query), filePaths, documentsMissing).get(0);
+    }
+
+    /**
+     * Scores several queries against the same files in one pass: every document is looked up once,
+     * and every distinct term is resolved and counted once, however many queries contain it.
+     * @param documentsMissing incremented for every file that is not in the snapshot, and so was not scored
+     * @return the scores of each query, in query order
+     */
+    private List<List<DocumentScore>> score(List<String> queries, List<String> filePaths, LongAdder documentsMissing)
+            throws InterruptedException, ExecutionException {
+        long startNanos = System.nanoTime();
+        LongAdder documentsScored = new LongAdder();
+
+        // 1. Parse the search queries: Normalize to lowercase and split into individual terms,
+        // then map each query term to its entry in the list of distinct terms
+        List<String> distinctTerms = new ArrayList<>();
+        Map<String, Integer> termIds = new HashMap<>();
+        int[][] queryTerms = new int[queries.size()][];
+        for (int q = 0; q < queries.size(); q++) {
+            String[] searchTerms = queries.get(q).toLowerCase().split("\\s+");
+            queryTerms[q] = new int[searchTerms.length];
+            for (int i = 0; i < searchTerms.length; i++) {
+                queryTerms[q][i] = termIds.computeIfAbsent(searchTerms[i], term -> {
+                    distinctTerms.add(term);
+                    return distinctTerms.size() - 1;
+                });
+            }
+        }
+
+        // Use one snapshot for the whole request, and resolve each term against it only once
+        IndexSnapshot snapshot = index.getSnapshot();
+        int[][] termOrdinals = new int[distinctTerms.size()][];
+        for (int i = 0; i < distinctTerms.size(); i++) {
+            termOrdinals[i] = snapshot.findTerm(distinctTerms.get(i));
+        }
+
+        // 2. Split the assigned files into slices, at most a few per scoring thread
+        int slices = Math.min(WORKER_THREADS * 4, Math.max(1, filePaths.size() / MIN_FILES_PER_SLICE));
+        int sliceSize = (filePaths.size() + slices - 1) / slices;
+
+        List<List<DocumentScore>> scores;
+        if (slices == 1) {
+            scores = scoreFiles(snapshot, distinctTerms, termOrdinals, queryTerms, filePaths, documentsScored,
+                    documentsMissing);
+        } else {
+            List<Callable<List<List<DocumentScore>>>> tasks = new ArrayList<>(slices);
+            for (int from = 0; from < filePaths.size(); from += sliceSize) {
+                List<String> slice = filePaths.subList(from, Math.min(from + sliceSize, filePaths.size()));
+                tasks.add(() -> scoreFiles(snapshot, distinctTerms, termOrdinals, queryTerms, slice, documentsScored,
+                        documentsMissing));
+            }
+            // Merge in slice order, so the response lists files in the order they were requested
+            scores = new ArrayList<>(queries.size());
+            for (int q = 0; q < queries.size(); q++) {
+                scores.add(new ArrayList<>());
+            }
+            for (Future<List<List<DocumentScore>>> result : scoringPool.invokeAll(tasks)) {
+                List<List<DocumentScore>> sliceScores = result.get();
+                for (int q = 0; q < queries.size(); q++) {
+                    scores.get(q).addAll(sliceScores.get(q));
+                }
+            }
+        }
+
+        recordThroughput(documentsScored.sum(), System.nanoTime() - startNanos);
+        return scores;
+    }
+
+    private synchronized void recordThroughput(long documents, long elapsedNanos) {
+        if (documents == 0) {
+            return;
+        }
+        double sample = documents / Math.max(elapsedNanos / 1_000_000.0, 0.001);
+        throughput = throughput == 0 ? sample : THROUGHPUT_SMOOTHING * sample + (1 - THROUGHPUT_SMOOTHING) * throughput;
+    }
+
+    /**
+     * Scores one slice of the assigned files against the snapshot, for every query at once.
+     * @param queryTerms for each query, its terms as indexes into {@code distinctTerms}
+     */
+    private List<List<DocumentScore>> scoreFiles(IndexSnapshot snapshot, List<String> distinctTerms, int[][] termOrdinals,
+                                                 int[][] queryTerms, List<String> fileNames, LongAdder documentsScored,
+                                                 LongAdder documentsMissing) {
+        List<List<DocumentScore>> scores = new ArrayList<>(queryTerms.length);
+        for (int q = 0; q < queryTerms.length; q++) {
+            scores.add(new ArrayList<>());
+        }
+        int[] termCounts = new int[distinctTerms.size()];
+        for (String fileName : fileNames) {
+            IndexSnapshot.DocumentRef document = snapshot.getDocument(fileName);
+            if (document == null) {
+                // Not indexed yet (or deleted); the background indexer picks it up within one refresh interval.
+                // Reported to the Leader, so the result counts as partial
+                System.err.println("Document not in index: " + fileName);
+                documentsMissing.increment();
+                continue;
+            }
+
+            documentsScored.increment();
+
+            // Total words in the document, taken from the index
+            double totalWords = document.getLength();
+
+            // Avoid division by zero for empty files
+            if (totalWords == 0) {
+                continue;
+            }
+
+            // Count each distinct term once for all queries
+            for (int t = 0; t < termCounts.length; t++) {
+                termCounts[t] = snapshot.getTermCount(termOrdinals[t], document);
+            }
+
+            // 3. Calculate TF for EACH search term separately
+            // We do NOT sum them up here. We send back (Term, TF) pairs.
+            for (int q = 0; q < queryTerms.length; q++) {
+                for (int termId : queryTerms[q]) {
+                    int termCount = termCounts[termId];
 
                     if (termCount > 0) {
                         // Formula: TF = (Count of Term in Doc) / (Total Words in Doc)
-                        double tf = (double) termCount / totalWords;
+                        double tf = termCount / totalWords;
 
                         // Add a specific score entry for this term
-                        responseBuilder.addDocumentScores(
+                        scores.get(q).add(
                                 DocumentScore.newBuilder()
                                         .setDocumentName(fileName)
-                                        .setTerm(term)      // Important: Identify which term this score is for
+                                        .setTerm(distinctTerms.get(termId))      // Important: Identify which term this score is for
                                         .setTfScore(tf)
                                         .build()
                         );
                     }
                 }
-
-            } catch (IOException e) {
-                System.err.println("Error reading file: " + fileName + " -> " + e.getMessage());
             }
         }
-
-        // 4. Send the response back to the Leader
-        responseObserver.onNext(responseBuilder.build());
-        responseObserver.onCompleted();
+        return scores;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package com.distributed.search.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The tokenizer must produce exactly the terms of the original worker logic, lowercase then split on whitespace,
+ * however the file is cut into mapped windows.
+ */
+class ByteTokenizerTest {
+
+    private static final List<String> DOCUMENTS = List.of(
+            "",
+            " ",
+            "\n\t \r",
+            "car",
+            "The Car drove the CAR",
+            "  leading and trailing whitespace  ",
+            "\u000Bvertical\u000Btab\fand form feed\r\nlines\n",
+            "Caf\u00E9 na\u00EFve \u00C9COLE \u0416\u0443\u0440\u043D\u0430\u043B \u65E5\u672C\u8A9E",
+            "\u0130stanbul STRASSE Stra\u00DFe \u039F\u0394\u039F\u03A3",
+            "no\u00A0break\u00A0space is not whitespace");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void windowedFileMatchesSplit() throws IOException {
+        for (String document : DOCUMENTS) {
+            assertWindowsMatchSplit(document);
+        }
+    }
+
+    @Test
+    void randomDocumentsMatchSplit() throws IOException {
+        String[] pieces = {"a", "B", "car", "Car", "\u00E9", "\u00C9", "\u0416", "\u65E5", "\uD83D\uDE97", "\u0130",
+                " ", "  ", "\n", "\t", "\r\n", "\u000B", "\f", "\u00A0"};
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder document = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                document.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertWindowsMatchSplit(document.toString());
+        }
+    }
+
+    /**
+     * Tokenizes the document as one window and as windows of every smaller size, so each byte boundary
+     * (inside a token, inside a multi-byte character, inside a run of whitespace) falls between two windows once.
+     */
+    private void assertWindowsMatchSplit(String document) throws IOException {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(directory.resolve("document.txt"), bytes);
+
+        String[] words = document.toLowerCase().split("\\s+");
+        Map<String, Integer> expected = new HashMap<>();
+        for (String word : words) {
+            expected.merge(word, 1, Integer::sum);
+        }
+
+        for (long window = Math.max(1, bytes.length); window >= 1; window--) {
+            TokenCounts termCounts = new TokenCounts();
+            int length = InvertedIndex.tokenize(file, termCounts, window);
+            String message = "'" + document + "' in windows of " + window + " bytes";
+            assertEquals(words.length, length, message);
+            assertEquals(expected, termCounts.toMap(), message);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.distributed.search.service;
+
+import com.distributed.search.coordinator.ScoreAggregator;
+import com.distributed.search.model.DocumentScore;
+import com.distributed.search.model.TFResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A worker may trim its scores to its local top K, but the Leader must still rank exactly the same top K
+ * as from the untrimmed scores.
+ */
+class TFServiceImplTest {
+
+    private static final int WORKERS = 3;
+
+    @Test
+    void trimmedScoresRankTheSameTopK() {
+        Random random = new Random(42);
+        int trimmedRuns = 0;
+        for (int run = 0; run < 500; run++) {
+            int documentCount = 1 + random.nextInt(60);
+            boolean inEveryDocument = random.nextInt(4) == 0; // IDF 0: the Leader ranks by name
+            int occurrences = 1 + random.nextInt(2); // "car car" gives two entries per document
+            boolean compact = random.nextBoolean();
+            int topK = 1 + random.nextInt(10);
+
+            List<List<DocumentScore>> workerScores = new ArrayList<>();
+            List<Integer> workerDocumentCounts = new ArrayList<>();
+            List<Integer> documents = new ArrayList<>();
+            for (int d = 0; d < documentCount; d++) {
+                documents.add(d);
+            }
+            Collections.shuffle(documents, random);
+            for (int w = 0; w < WORKERS; w++) {
+                List<DocumentScore> scores = new ArrayList<>();
+                List<Integer> slice = documents.subList(w * documentCount / WORKERS, (w + 1) * documentCount / WORKERS);
+                for (int d : slice) {
+                    if (!inEveryDocument && random.nextInt(3) == 0) {
+                        continue;
+                    }
+                    // Small counts and lengths give many exact ties, nudged into near ties
+                    double tf = (double) (1 + random.nextInt(3)) / (3 + random.nextInt(8));
+                    switch (random.nextInt(4)) {
+                        case 0 -> tf = Math.nextUp(tf); // May become equal once multiplied by the IDF
+                        case 1 -> tf = Math.nextUp(Math.nextUp(tf));
+                        case 2 -> tf *= 1 + 1e-10; // Apart as doubles, equal as floats
+                        default -> { }
+                    }
+                    for (int i = 0; i < occurrences; i++) {
+                        scores.add(DocumentScore.newBuilder()
+                                .setDocumentName(String.format("doc-%03d.txt", d))
+                                .setTerm("car")
+                                .setTfScore(tf)
+                                .build());
+                    }
+                }
+                workerScores.add(scores);
+                workerDocumentCounts.add(slice.size());
+            }
+
+            ScoreAggregator untrimmed = new ScoreAggregator();
+            ScoreAggregator trimmed = new ScoreAggregator();
+            int untrimmedSize = 0;
+            int trimmedSize = 0;
+            for (int w = 0; w < WORKERS; w++) {
+                List<DocumentScore> scores = workerScores.get(w);
+                int count = workerDocumentCounts.get(w);
+                untrimmedSize += add(untrimmed, TFServiceImpl.toResponse(scores, count, compact, 0), count);
+                trimmedSize += add(trimmed, TFServiceImpl.toResponse(scores, count, compact, topK), count);
+            }
+            if (trimmedSize < untrimmedSize) {
+                trimmedRuns++;
+            }
+
+            assertEquals(untrimmed.rank(documentCount, topK), trimmed.rank(documentCount, topK),
+                    "run " + run + ": " + documentCount + " documents, top " + topK + ", compact " + compact);
+        }
+        assertTrue(trimmedRuns > 100, "only " + trimmedRuns + " runs were trimmed");
+    }
+
+    @Test
+    void nearTiesOfTheKthAreKept() {
+        // Two TFs one ulp apart that become the same score once multiplied by the IDF, log(4 / 2)
+        double idf = Math.log(4.0 / 2);
+        double tf = 0.4;
+        while (tf * idf != Math.nextUp(tf) * idf) {
+            tf = Math.nextUp(tf);
+        }
+        List<DocumentScore> scores = List.of(
+                DocumentScore.newBuilder().setDocumentName("a.txt").setTerm("car").setTfScore(tf).build(),
+                DocumentScore.newBuilder().setDocumentName("b.txt").setTerm("car").setTfScore(Math.nextUp(tf)).build());
+
+        // The Leader ranks the tie by name, so the lower TF must survive the worker's top 1
+        ScoreAggregator untrimmed = new ScoreAggregator();
+        ScoreAggregator trimmed = new ScoreAggregator();
+        add(untrimmed, TFServiceImpl.toResponse(scores, 4, false, 0), 4);
+        add(trimmed, TFServiceImpl.toResponse(scores, 4, false, 1), 4);
+        List<Map.Entry<String, Double>> ranking = untrimmed.rank(4, 1);
+        assertEquals("a.txt", ranking.get(0).getKey());
+        assertEquals(ranking, trimmed.rank(4, 1));
+    }
+
+    @Test
+    void severalTermsAreNotTrimmed() {
+        List<DocumentScore> scores = new ArrayList<>();
+        for (int d = 0; d < 20; d++) {
+            for (String term : new String[]{"distributed", "systems"}) {
+                scores.add(DocumentScore.newBuilder()
+                        .setDocumentName("doc-" + d + ".txt")
+                        .setTerm(term)
+                        .setTfScore(1.0 / (d + 2))
+                        .build());
+            }
+        }
+        TFResponse response = TFServiceImpl.toResponse(scores, 20, false, 3).build();
+        assertEquals(scores, response.getDocumentScoresList());
+        assertEquals(Map.of(), response.getTermDocumentCountsMap());
+    }
+
+    /**
+     * Merges a response as the Leader does.
+     * @return the number of scores in the response.
+     */
+    private static int add(ScoreAggregator aggregator, TFResponse.Builder response, int documentCount) {
+        if (response.hasCompactScores()) {
+            aggregator.add(response.getCompactScores(), documentCount, response.getTermDocumentCountsMap());
+            return response.getCompactScores().getTfScoresCount();
+        }
+        aggregator.add(response.getDocumentScoresList(), documentCount, response.getTermDocumentCountsMap());
+        return response.getDocumentScoresCount();
+    }
+}